@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp.data;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.SupplierEntry;
+import com.example.inventory.inventoryapp.data.InventoryProvider.Query;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that the queries {@link InventoryProvider} builds for the catalog pages, the products
+ * of a supplier and the low stock products are answered from the indexes rather than by
+ * scanning the products. The plans are read from a freshly created database of the test, so
+ * the database of the app is never opened.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanTest {
+
+    private static final String[] PRODUCT_PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME };
+
+    private static final String[] LOW_STOCK_PROJECTION = {
+            ProductEntry.VIEW_NAME + "." + ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME };
+
+    private Context mContext;
+    private InventoryDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void openDatabase() {
+        // The database files of the test get a prefix, away from the ones of the app
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "query_plan_test_");
+        mDbHelper = new InventoryDbHelper(mContext);
+        mContext.deleteDatabase(mDbHelper.getDatabaseName());
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void closeDatabase() {
+        mDbHelper.close();
+        mContext.deleteDatabase(mDbHelper.getDatabaseName());
+    }
+
+    @Test
+    public void firstPageUsesNameIndex() {
+        Uri uri = ProductEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT, "50")
+                .build();
+        String plan = explain(InventoryProvider.buildProductPageQuery(uri, PRODUCT_PROJECTION,
+                null, null));
+        assertUsesIndex(plan, "products_name_index");
+    }
+
+    @Test
+    public void nextPageUsesNameIndex() {
+        Uri uri = ProductEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_NAME, "m")
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID, "10")
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT, "50")
+                .build();
+        String plan = explain(InventoryProvider.buildProductPageQuery(uri, PRODUCT_PROJECTION,
+                null, null));
+        assertUsesIndex(plan, "products_name_index");
+    }
+
+    @Test
+    public void supplierProductsUseSupplierIndex() {
+        String plan = explain(InventoryProvider.buildSupplierProductsQuery(
+                SupplierEntry.buildProductsUri(1), PRODUCT_PROJECTION, null, null, null));
+        assertUsesIndex(plan, "products_supplier_index");
+    }
+
+    @Test
+    public void lowStockFindsProductsById() {
+        String plan = explain(InventoryProvider.buildLowStockQuery(LOW_STOCK_PROJECTION, null,
+                null, null));
+        assertTrue(plan, plan.contains("products USING INTEGER PRIMARY KEY"));
+        assertNoProductScan(plan);
+    }
+
+    /**
+     * Return the details of the query plan, one step per line.
+     */
+    private String explain(Query query) {
+        Cursor cursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + query.sql, query.args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+            return plan.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Check that the products are read through the given index. Newer SQLite versions say
+     * "USING COVERING INDEX" when the index holds every column read.
+     */
+    private static void assertUsesIndex(String plan, String index) {
+        assertTrue(plan, plan.contains("USING INDEX " + index)
+                || plan.contains("USING COVERING INDEX " + index));
+        assertNoProductScan(plan);
+    }
+
+    /**
+     * Check that no step reads the whole products table without an index. Older SQLite
+     * versions name the table as "TABLE products".
+     */
+    private static void assertNoProductScan(String plan) {
+        for (String step : plan.split("\n")) {
+            boolean scan = step.startsWith("SCAN products")
+                    || step.startsWith("SCAN TABLE products");
+            assertFalse(plan, scan && !step.contains("INDEX"));
+        }
+    }
+}
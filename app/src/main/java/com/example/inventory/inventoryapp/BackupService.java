@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v4.app.NotificationCompat;
+import android.text.format.Formatter;
+import android.util.Log;
+import com.example.inventory.inventoryapp.data.InventoryContract;
+import com.example.inventory.inventoryapp.data.InventoryContract.Backup;
+import java.io.File;
+import java.io.FileFilter;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Backs up the database, or restores a backup, in the background.
+ *
+ * Backups go to the "backups" folder of the app's external files directory, which can be
+ * copied off the device, one file per backup named after the time it was taken. A
+ * notification reports how long the backup took and how long writers had to wait.
+ */
+public class BackupService extends IntentService {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = BackupService.class.getSimpleName();
+
+    /** Extension of the backup files */
+    private static final String BACKUP_EXTENSION = ".invbak";
+
+    /** Actions of the intent, a restore has the path of the backup file as its text extra */
+    private static final String ACTION_BACKUP = "backup";
+    private static final String ACTION_RESTORE = "restore";
+
+    /** Id of the backup notification */
+    private static final int NOTIFICATION_ID = 3;
+
+    /**
+     * Start backing up the database.
+     */
+    public static void startBackup(Context context) {
+        Intent intent = new Intent(context, BackupService.class);
+        intent.setAction(ACTION_BACKUP);
+        context.startService(intent);
+    }
+
+    /**
+     * Start replacing the database with a backup.
+     */
+    public static void startRestore(Context context, File backup) {
+        Intent intent = new Intent(context, BackupService.class);
+        intent.setAction(ACTION_RESTORE);
+        intent.putExtra(Intent.EXTRA_TEXT, backup.getPath());
+        context.startService(intent);
+    }
+
+    /**
+     * Return the backup files, newest first, or an empty array if external storage is not
+     * available.
+     */
+    public static File[] listBackups(Context context) {
+        File directory = context.getExternalFilesDir("backups");
+        File[] backups = directory == null ? null : directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(BACKUP_EXTENSION);
+            }
+        });
+        if (backups == null) {
+            return new File[0];
+        }
+        Arrays.sort(backups, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                // Names hold the time of the backup
+                return b.getName().compareTo(a.getName());
+            }
+        });
+        return backups;
+    }
+
+    public BackupService() {
+        super(LOG_TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        boolean restore = ACTION_RESTORE.equals(intent.getAction());
+
+        NotificationManager notificationManager =
+                (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
+                .setSmallIcon(restore ? android.R.drawable.stat_sys_download
+                        : android.R.drawable.stat_sys_upload)
+                .setContentTitle(getString(restore ? R.string.restore_title
+                        : R.string.backup_title))
+                .setOngoing(true)
+                .setProgress(0, 0, true);
+        startForeground(NOTIFICATION_ID, builder.build());
+
+        Bundle result = null;
+        try {
+            if (restore) {
+                result = getContentResolver().call(InventoryContract.BASE_CONTENT_URI,
+                        Backup.METHOD_RESTORE, intent.getStringExtra(Intent.EXTRA_TEXT), null);
+            } else {
+                File backup = createBackupFile();
+                if (backup != null) {
+                    result = getContentResolver().call(InventoryContract.BASE_CONTENT_URI,
+                            Backup.METHOD_BACKUP, backup.getPath(), null);
+                }
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            Log.e(LOG_TAG, restore ? "Failed to restore" : "Failed to back up", e);
+            result = null;
+        }
+        stopForeground(true);
+
+        // Report the outcome
+        NotificationCompat.Builder done = new NotificationCompat.Builder(this)
+                .setSmallIcon(restore ? android.R.drawable.stat_sys_download_done
+                        : android.R.drawable.stat_sys_upload_done)
+                .setAutoCancel(true);
+        if (result == null) {
+            done.setContentTitle(getString(restore ? R.string.restore_failed
+                    : R.string.backup_failed));
+        } else {
+            String stats = formatStats(result);
+            done.setContentTitle(getString(restore ? R.string.restore_done : R.string.backup_done))
+                    .setContentText(stats)
+                    .setStyle(new NotificationCompat.BigTextStyle().bigText(stats));
+        }
+        notificationManager.notify(NOTIFICATION_ID, done.build());
+    }
+
+    /**
+     * Return a new backup file named after the current time, or null if external storage is not
+     * available.
+     */
+    private File createBackupFile() {
+        File directory = getExternalFilesDir("backups");
+        if (directory == null) {
+            Log.e(LOG_TAG, "External storage is not available");
+            return null;
+        }
+        String name = "inventory-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        return new File(directory, name + BACKUP_EXTENSION);
+    }
+
+    /**
+     * Return the figures of a backup or a restore: sizes, time taken, throughput and how long
+     * writers waited.
+     */
+    private String formatStats(Bundle result) {
+        long databaseBytes = result.getLong(Backup.EXTRA_DATABASE_BYTES);
+        long durationMillis = result.getLong(Backup.EXTRA_DURATION_MILLIS);
+        long bytesPerSecond = databaseBytes * 1000 / Math.max(1, durationMillis);
+        return getString(R.string.backup_stats,
+                Formatter.formatShortFileSize(this, databaseBytes),
+                Formatter.formatShortFileSize(this, result.getLong(Backup.EXTRA_BACKUP_BYTES)),
+                durationMillis,
+                Formatter.formatShortFileSize(this, bytesPerSecond),
+                result.getLong(Backup.EXTRA_WRITE_STALL_MILLIS));
+    }
+}
@@ -15,35 +15,152 @@
  */
 package com.example.inventory.inventoryapp;
 
+import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.content.Context;
 import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.Toast;
 import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.SummaryEntry;
+import com.example.inventory.inventoryapp.data.SaleQueue;
+import java.io.File;
+import java.util.List;
 
 /**
  * Displays list of products that were entered and stored in the app.
  */
-public class CatalogActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+public class CatalogActivity extends AppCompatActivity implements ProductPager.Callback {
 
-    /** Identifier for the product data loader */
+    /** Identifier for the loader of the first page of products, next pages use the ids after it */
     private static final int PRODUCT_LOADER = 0;
 
-    /** Adapter for the ListView */
-    InventoryCursorAdapter mCursorAdapter;
+    /** Identifier for the search results loader, kept clear of the page loader ids */
+    private static final int SEARCH_LOADER = 10000;
+
+    /** Identifier for the low stock loader, kept clear of the page loader ids */
+    private static final int LOW_STOCK_LOADER = 10001;
+
+    /** Request code of the file picker for the CSV file to import */
+    private static final int REQUEST_IMPORT = 1;
+
+    /** Key of the search text in the search loader arguments */
+    private static final String ARG_SEARCH_QUERY = "search_query";
+
+    /** Adapter for the RecyclerView */
+    InventoryAdapter mAdapter;
+
+    /** Shown instead of the list when it has no products */
+    private View mEmptyView;
+
+    /** Loads the products page by page as the list is scrolled */
+    private ProductPager mProductPager;
+
+    /** Pages loaded so far, kept to show them again when the search is cleared */
+    private List<ProductItem> mPagesItems;
+
+    /** True while the list shows search results instead of the catalog pages */
+    private boolean mSearching = false;
+
+    /** Sales made with the order buttons, written behind the list */
+    private SaleQueue mSaleQueue;
+
+    /** Ids and names of the low stock products, or null until they are loaded */
+    private Cursor mLowStockCursor;
+
+    /** Used to show the results of the background work */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Told when queued sales could not be written because the product ran out meanwhile: the
+     * row shows the quantity without them again.
+     */
+    private final SaleQueue.Listener mSaleListener = new SaleQueue.Listener() {
+        @Override
+        public void onSaleRefused(long productId, int quantity) {
+            Toast.makeText(CatalogActivity.this, getString(R.string.toast_product_empty),
+                    Toast.LENGTH_SHORT).show();
+            mAdapter.refreshQuantity(productId);
+        }
+    };
+
+    /**
+     * Loads the search results. The search has its own loader so the catalog pages stay loaded
+     * while the user searches.
+     */
+    private final LoaderManager.LoaderCallbacks<List<ProductItem>> mSearchLoaderCallbacks =
+            new LoaderManager.LoaderCallbacks<List<ProductItem>>() {
+                @Override
+                public Loader<List<ProductItem>> onCreateLoader(int id, Bundle args) {
+                    // This loader will execute the ContentProvider's query method on a background
+                    // thread, in the ranked order set by the provider
+                    return new ProductListLoader(CatalogActivity.this,
+                            ProductEntry.buildSearchUri(args.getString(ARG_SEARCH_QUERY)));
+                }
+
+                @Override
+                public void onLoadFinished(Loader<List<ProductItem>> loader,
+                                           List<ProductItem> data) {
+                    if (mSearching) {
+                        mAdapter.submitList(data);
+                    }
+                }
+
+                @Override
+                public void onLoaderReset(Loader<List<ProductItem>> loader) {
+                    if (mSearching) {
+                        mAdapter.submitList(null);
+                    }
+                }
+            };
+
+    /**
+     * Loads the low stock products for the menu. The provider only notifies this list when a
+     * product is flagged or cleared, so sales don't reload it.
+     */
+    private final LoaderManager.LoaderCallbacks<Cursor> mLowStockLoaderCallbacks =
+            new LoaderManager.LoaderCallbacks<Cursor>() {
+                @Override
+                public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+                    String[] projection = {
+                            ProductEntry._ID,
+                            ProductEntry.COLUMN_PRODUCT_NAME};
+                    return new CursorLoader(CatalogActivity.this, ProductEntry.LOW_STOCK_URI,
+                            projection, null, null, null);
+                }
+
+                @Override
+                public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+                    mLowStockCursor = data;
+                    invalidateOptionsMenu();
+                }
+
+                @Override
+                public void onLoaderReset(Loader<Cursor> loader) {
+                    mLowStockCursor = null;
+                }
+            };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -60,22 +177,17 @@ public class CatalogActivity extends AppCompatActivity implements
             }
         });
 
-        // Find the ListView which will be populated with the product data
-        ListView productListView = (ListView) findViewById(R.id.list);
-
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        productListView.setEmptyView(emptyView);
-
-        // Setup an Adapter to create a list item for each row of product data in the Cursor.
-        // There is no product data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new InventoryCursorAdapter(this, null);
-        productListView.setAdapter(mCursorAdapter);
+        // Find the RecyclerView which will be populated with the product data
+        RecyclerView productListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        productListView.setLayoutManager(layoutManager);
 
-        // Setup the item click listener
-        productListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Setup an Adapter to create a list item for each product, open the
+        // {@link EditorActivity} when a product is clicked on.
+        // There is no product data yet (until the loader finishes).
+        mAdapter = new InventoryAdapter(this, new InventoryAdapter.OnProductClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onProductClick(long id) {
                 // Create new intent to go to {@link EditorActivity}
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
 
@@ -93,9 +205,93 @@ public class CatalogActivity extends AppCompatActivity implements
                 startActivity(intent);
             }
         });
+        productListView.setAdapter(mAdapter);
 
-        // Kick off the loader
-        getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
+        // Find the empty view, so that it only shows when the list has 0 items.
+        mEmptyView = findViewById(R.id.empty_view);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        updateEmptyView();
+
+        // Request the next page when the user scrolls within half a page of the end of the list
+        productListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = mAdapter.getItemCount();
+                if (!mSearching && totalItemCount > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= totalItemCount - ProductPager.PAGE_SIZE / 2) {
+                    mProductPager.loadNextPage();
+                }
+            }
+        });
+
+        // Kick off the loader of the first page
+        mProductPager = new ProductPager(this, getLoaderManager(), PRODUCT_LOADER, this);
+        mProductPager.start();
+
+        mSaleQueue = SaleQueue.getInstance(this);
+
+        // Kick off the loader of the low stock products
+        getLoaderManager().initLoader(LOW_STOCK_LOADER, null, mLowStockLoaderCallbacks);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mSaleQueue.addListener(mSaleListener);
+
+        // Sales refused while the catalog was paused were not reported, show the quantities
+        // without them
+        mAdapter.refreshQuantities();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mSaleQueue.removeListener(mSaleListener);
+
+        // Write the queued sales now: the process may be killed any time once it's paused
+        mSaleQueue.flush();
+    }
+
+    /**
+     * Show the products matching the given text, or the whole catalog if the text is empty.
+     */
+    private void search(String query) {
+        if (TextUtils.isEmpty(query.trim())) {
+            if (mSearching) {
+                mSearching = false;
+                getLoaderManager().destroyLoader(SEARCH_LOADER);
+                mAdapter.submitList(mPagesItems);
+            }
+            return;
+        }
+
+        mSearching = true;
+        Bundle args = new Bundle();
+        args.putString(ARG_SEARCH_QUERY, query);
+        getLoaderManager().restartLoader(SEARCH_LOADER, args, mSearchLoaderCallbacks);
+    }
+
+    /**
+     * Show the empty view instead of the list when there are no products.
+     */
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     /**
@@ -111,9 +307,38 @@ public class CatalogActivity extends AppCompatActivity implements
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Search as the user types
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(
+                menu.findItem(R.id.action_search));
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText);
+                return true;
+            }
+        });
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Show how many products are low on stock
+        MenuItem lowStockItem = menu.findItem(R.id.action_low_stock);
+        if (mLowStockCursor != null) {
+            lowStockItem.setTitle(getString(R.string.action_low_stock,
+                    mLowStockCursor.getCount()));
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -121,40 +346,270 @@ public class CatalogActivity extends AppCompatActivity implements
             case R.id.action_delete_all_entries:
                 deleteAllProducts();
                 return true;
+            case R.id.action_low_stock:
+                showLowStockDialog();
+                return true;
+            case R.id.action_summary:
+                showSummary();
+                return true;
+            case R.id.action_orders:
+                startActivity(new Intent(this, OrdersActivity.class));
+                return true;
+            case R.id.action_metrics:
+                startActivity(new Intent(this, MetricsActivity.class));
+                return true;
+            case R.id.action_import:
+                pickImportFile();
+                return true;
+            case R.id.action_export:
+                showExportDialog();
+                return true;
+            case R.id.action_backup:
+                BackupService.startBackup(this);
+                return true;
+            case R.id.action_restore:
+                showRestoreDialog();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_PRICE,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY,
-                ProductEntry.COLUMN_PRODUCT_SUPPLIER,
-                ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL,
-                ProductEntry.COLUMN_PRODUCT_PICTURE};
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                ProductEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+    /**
+     * List the low stock products, emptiest first. Picking one opens it in the editor.
+     */
+    private void showLowStockDialog() {
+        if (mLowStockCursor == null || mLowStockCursor.getCount() == 0) {
+            Toast.makeText(this, R.string.toast_no_low_stock, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final long[] ids = new long[mLowStockCursor.getCount()];
+        CharSequence[] names = new CharSequence[ids.length];
+        for (int i = 0; i < ids.length && mLowStockCursor.moveToPosition(i); i++) {
+            ids[i] = mLowStockCursor.getLong(0);
+            names[i] = mLowStockCursor.getString(1);
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_low_stock_none)
+                .setItems(names, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+                        intent.setData(ContentUris.withAppendedId(ProductEntry.CONTENT_URI,
+                                ids[which]));
+                        startActivity(intent);
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Read the inventory summary in the background, then show it: the totals, then the totals
+     * of each supplier. Both are read from the summary tables, so this doesn't depend on the
+     * size of the catalog.
+     */
+    private void showSummary() {
+        final ContentResolver contentResolver = getContentResolver();
+        final Context appContext = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final String summary = buildSummary(appContext, contentResolver);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinishing()) {
+                            showSummaryDialog(summary);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Return the text of the inventory summary.
+     */
+    private static String buildSummary(Context context, ContentResolver contentResolver) {
+        StringBuilder summary = new StringBuilder();
+        Cursor cursor = contentResolver.query(ProductEntry.SUMMARY_URI, new String[] {
+                SummaryEntry.COLUMN_PRODUCT_COUNT,
+                SummaryEntry.COLUMN_SUPPLIER_COUNT,
+                SummaryEntry.COLUMN_TOTAL_QUANTITY,
+                SummaryEntry.COLUMN_TOTAL_VALUE}, null, null, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) {
+                    summary.append(context.getString(R.string.summary_totals, cursor.getInt(0),
+                            cursor.getInt(1), cursor.getLong(2), cursor.getLong(3)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        cursor = contentResolver.query(ProductEntry.SUPPLIER_SUMMARY_URI, new String[] {
+                SummaryEntry.COLUMN_SUPPLIER,
+                SummaryEntry.COLUMN_PRODUCT_COUNT,
+                SummaryEntry.COLUMN_TOTAL_QUANTITY,
+                SummaryEntry.COLUMN_TOTAL_VALUE}, null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    summary.append("\n\n").append(context.getString(R.string.summary_supplier,
+                            cursor.getString(0), cursor.getInt(1), cursor.getLong(2),
+                            cursor.getLong(3)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Show the inventory summary, with a button to check it against the products.
+     */
+    private void showSummaryDialog(String summary) {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_summary)
+                .setMessage(summary)
+                .setPositiveButton(R.string.close, null)
+                .setNeutralButton(R.string.summary_verify, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        verifySummary();
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Check the summary against the products in the background, rebuilding it if it's off.
+     */
+    private void verifySummary() {
+        final ContentResolver contentResolver = getContentResolver();
+        final Context appContext = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bundle result = contentResolver.call(ProductEntry.SUMMARY_URI,
+                        SummaryEntry.METHOD_VERIFY, SummaryEntry.ARG_REPAIR, null);
+                int mismatches = result == null ? 0
+                        : result.getInt(SummaryEntry.EXTRA_MISMATCHES);
+                final String message = mismatches == 0
+                        ? appContext.getString(R.string.summary_consistent)
+                        : appContext.getString(R.string.summary_repaired, mismatches);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(appContext, message, Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Let the user pick the CSV file to import products from.
+     */
+    private void pickImportFile() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("text/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        startActivityForResult(intent, REQUEST_IMPORT);
+    }
+
+    /**
+     * Ask the user for the format of the export and whether to include the pictures, then start
+     * the export in the background.
+     */
+    private void showExportDialog() {
+        final boolean[] pictures = { false };
+        DialogInterface.OnClickListener formatListener = new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                String format = which == DialogInterface.BUTTON_NEUTRAL
+                        ? ProductEntry.FORMAT_JSON : ProductEntry.FORMAT_CSV;
+                ProductExportService.start(CatalogActivity.this, format, pictures[0]);
+            }
+        };
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_export)
+                .setMultiChoiceItems(new CharSequence[] { getString(R.string.export_pictures) },
+                        pictures, new DialogInterface.OnMultiChoiceClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which,
+                                                boolean isChecked) {
+                                pictures[which] = isChecked;
+                            }
+                        })
+                .setPositiveButton(R.string.export_csv, formatListener)
+                .setNeutralButton(R.string.export_json, formatListener)
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Let the user pick a backup, newest first, and confirm that it replaces the inventory.
+     */
+    private void showRestoreDialog() {
+        final File[] backups = BackupService.listBackups(this);
+        if (backups.length == 0) {
+            Toast.makeText(this, R.string.restore_none, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        CharSequence[] names = new CharSequence[backups.length];
+        for (int i = 0; i < backups.length; i++) {
+            names[i] = backups[i].getName();
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_restore)
+                .setItems(names, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        confirmRestore(backups[which]);
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    private void confirmRestore(final File backup) {
+        new AlertDialog.Builder(this)
+                .setMessage(getString(R.string.restore_confirm, backup.getName()))
+                .setPositiveButton(R.string.restore, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        // Write the queued sales first, they belong to the current inventory
+                        mSaleQueue.flush();
+                        BackupService.startRestore(CatalogActivity.this, backup);
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link InventoryCursorAdapter} with this new cursor containing updated product data
-        mCursorAdapter.swapCursor(data);
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_IMPORT && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            // The import runs in a service, the list shows the products as they are written
+            ProductImportService.start(this, data.getData());
+        }
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+    public void onPagesChanged(List<ProductItem> items) {
+        // Update {@link InventoryAdapter} with the pages loaded so far,
+        // unless search results are shown
+        mPagesItems = items;
+        if (!mSearching) {
+            mAdapter.submitList(items);
+        }
     }
 }
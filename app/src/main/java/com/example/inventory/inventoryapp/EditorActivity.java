@@ -17,7 +17,10 @@ package com.example.inventory.inventoryapp;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -27,14 +30,17 @@ import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.MediaStore;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageView;
@@ -42,7 +48,15 @@ import android.widget.TextView;
 import android.widget.Toast;
 import com.example.inventory.inventoryapp.data.DbBitmapUtility;
 import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.StockMovementEntry;
+import com.example.inventory.inventoryapp.data.ProductBitmapCache;
+import com.example.inventory.inventoryapp.data.ProductImageDecoder;
+import com.example.inventory.inventoryapp.data.ProductImageEncoder;
+import com.example.inventory.inventoryapp.data.ProductImageStore;
 import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Allows user to create a new product or edit an existing one.
@@ -50,9 +64,15 @@ import java.io.IOException;
 public class EditorActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
 
+    /** Tag for the log messages */
+    public static final String LOG_TAG = EditorActivity.class.getSimpleName();
+
     /** Identifier for the product data loader */
     private static final int EXISTING_PRODUCT_LOADER = 0;
 
+    /** Number of times a save is retried when the product changed meanwhile */
+    private static final int MAX_SAVE_ATTEMPTS = 3;
+
     /** Content URI for the existing product (null if it's a new product) */
     private Uri mCurrentProductUri;
 
@@ -65,6 +85,12 @@ public class EditorActivity extends AppCompatActivity implements
     /** EditText field to enter the product's quantity */
     private EditText mQuantityEditText;
 
+    /** EditText field to enter the quantity at or below which the product is low on stock */
+    private EditText mReorderThresholdEditText;
+
+    /** EditText field to enter the quantity a purchase order brings the product up to */
+    private EditText mTargetQuantityEditText;
+
     /** EditText field to enter the product's supplier */
     private EditText mSupplier;
 
@@ -74,6 +100,18 @@ public class EditorActivity extends AppCompatActivity implements
     /** ImageView field to enter the product's picture */
     private ImageView mPicture;
 
+    /** Boolean flag that keeps track of whether the user picked a new picture */
+    private boolean mPictureChanged = false;
+
+    /** Image key of the picture loaded from the product, or null */
+    private String mImageKey;
+
+    /** Decoding of the picture picked by the user, or null */
+    private PictureDecodeTask mPictureDecode;
+
+    /** Reason recorded for the change of the stock when the product is saved */
+    private String mStockReason = StockMovementEntry.REASON_CORRECTION;
+
     /** int to calculate sale quantity */
     private static int saleQuantity = 0;
 
@@ -83,6 +121,18 @@ public class EditorActivity extends AppCompatActivity implements
     // Integer to get the real number of quantity from the DB
     private int quantityDB;
 
+    // The product as last read from the DB (null until it is read), the edits of the user are
+    // the fields that differ from it
+    private String mLoadedName;
+    private String mLoadedPrice;
+    private String mLoadedSupplier;
+    private String mLoadedSupplierEmail;
+    private String mLoadedReorderThreshold;
+    private String mLoadedTargetQuantity;
+
+    /** Version of the product as last read from the DB */
+    private int mVersion;
+
     /** Views to hide it from add option */
     private Button increaseQuantityButton;
     private Button decreaseQuantityButton;
@@ -149,6 +199,8 @@ public class EditorActivity extends AppCompatActivity implements
         mNameEditText = (EditText) findViewById(R.id.edit_product_name);
         mPriceEditText = (EditText) findViewById(R.id.edit_product_price);
         mQuantityEditText = (EditText) findViewById(R.id.edit_product_quantity);
+        mReorderThresholdEditText = (EditText) findViewById(R.id.edit_product_reorder_threshold);
+        mTargetQuantityEditText = (EditText) findViewById(R.id.edit_product_target_quantity);
         mSupplier = (EditText) findViewById(R.id.edit_product_supplier);
         mSupplierEmail = (EditText) findViewById(R.id.edit_product_supplier_email);
         mPicture = (ImageView) findViewById(R.id.product_picture);
@@ -158,6 +210,8 @@ public class EditorActivity extends AppCompatActivity implements
         // or not, if the user tries to leave the editor without saving.
         mNameEditText.setOnTouchListener(mTouchListener);
         mPriceEditText.setOnTouchListener(mTouchListener);
+        mReorderThresholdEditText.setOnTouchListener(mTouchListener);
+        mTargetQuantityEditText.setOnTouchListener(mTouchListener);
         mSupplier.setOnTouchListener(mTouchListener);
         mSupplierEmail.setOnTouchListener(mTouchListener);
         mPicture.setOnTouchListener(mTouchListener);
@@ -169,9 +223,14 @@ public class EditorActivity extends AppCompatActivity implements
     }
 
     /**
-     * Get user input from editor and save product into database.
+     * Get user input from editor and save product into database. The picture is encoded and the
+     * product written on a background thread, so this returns right away.
      */
     private void saveProduct() {
+        // The reason only applies to this save
+        final String stockReason = mStockReason;
+        mStockReason = StockMovementEntry.REASON_CORRECTION;
+
         // Read from input fields
         // Use trim to eliminate leading or trailing white space
         String nameString = mNameEditText.getText().toString().trim();
@@ -179,23 +238,15 @@ public class EditorActivity extends AppCompatActivity implements
         String quantityString = mQuantityEditText.getText().toString().trim();
         String supplierString = mSupplier.getText().toString().trim();
         String supplierEmailString = mSupplierEmail.getText().toString().trim();
-        String pictureString = mPicture.toString().trim();
-
-        // Enable DrawingCache
-        mPicture.buildDrawingCache(true);
-        // Get Drawable from the picture
-        BitmapDrawable drawable = (BitmapDrawable)mPicture.getDrawable();
-        // Get Bitmap from the picture
-        Bitmap bitmap = drawable.getBitmap();
-        // Convert the picture to byt for send it to DB
-        byte[]  pictureByte = DbBitmapUtility.getBytes(bitmap);
+        String reorderThresholdString = mReorderThresholdEditText.getText().toString().trim();
+        String targetQuantityString = mTargetQuantityEditText.getText().toString().trim();
 
         // Check if this is supposed to be a new product
         // and check if all the fields in the editor are blank
         if (mCurrentProductUri == null &&
                 TextUtils.isEmpty(nameString) || TextUtils.isEmpty(priceString) ||
                 TextUtils.isEmpty(quantityString) || TextUtils.isEmpty(supplierString) ||
-                TextUtils.isEmpty(supplierEmailString) || TextUtils.isEmpty(pictureString)){
+                TextUtils.isEmpty(supplierEmailString)){
             // Since no fields were modified, we can return early without creating a new product.
 
             Toast.makeText(this, getString(R.string.toast_field_empty), Toast.LENGTH_SHORT).show();
@@ -204,7 +255,7 @@ public class EditorActivity extends AppCompatActivity implements
 
         // Create a ContentValues object where column names are the keys,
         // and product attributes from the editor are the values.
-        ContentValues values = new ContentValues();
+        final ContentValues values = new ContentValues();
 
         values.put(ProductEntry.COLUMN_PRODUCT_NAME, nameString);
 
@@ -224,44 +275,168 @@ public class EditorActivity extends AppCompatActivity implements
 
         values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL, supplierEmailString);
 
-        values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, pictureByte);
+        // The reorder threshold is optional, the provider has a default
+        if (!TextUtils.isEmpty(reorderThresholdString)) {
+            values.put(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD,
+                    Integer.parseInt(reorderThresholdString));
+        }
 
-        // Determine if this is a new or existing product by checking if mCurrentProductUri is null or not
-        if (mCurrentProductUri == null) {
+        // So is the target quantity
+        if (!TextUtils.isEmpty(targetQuantityString)) {
+            values.put(ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY,
+                    Integer.parseInt(targetQuantityString));
+        }
+
+        // The stock of an existing product is not overwritten: the difference with the quantity
+        // read from the database is recorded as a movement, so changes made meanwhile are kept
+        final int quantityDelta;
+        if (mCurrentProductUri != null) {
+            values.remove(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            quantityDelta = quantity - quantityDB;
+
+            // Only write the fields the user changed, so if another change of the product was
+            // saved meanwhile, its other fields are kept
+            removeIfUnchanged(values, ProductEntry.COLUMN_PRODUCT_NAME, nameString, mLoadedName);
+            removeIfUnchanged(values, ProductEntry.COLUMN_PRODUCT_PRICE, priceString, mLoadedPrice);
+            removeIfUnchanged(values, ProductEntry.COLUMN_PRODUCT_SUPPLIER, supplierString,
+                    mLoadedSupplier);
+            removeIfUnchanged(values, ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL,
+                    supplierEmailString, mLoadedSupplierEmail);
+            removeIfUnchanged(values, ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD,
+                    reorderThresholdString, mLoadedReorderThreshold);
+            removeIfUnchanged(values, ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY,
+                    targetQuantityString, mLoadedTargetQuantity);
+        } else {
+            quantityDelta = 0;
+        }
+
+        // Only encode the picture if the user picked a new one
+        final Bitmap bitmap = mPictureChanged
+                ? ((BitmapDrawable) mPicture.getDrawable()).getBitmap() : null;
+        mPictureChanged = false;
+
+        // The activity may be gone by the time the product is written,
+        // so only keep what the background work needs
+        final ContentResolver contentResolver = getContentResolver();
+        final Context appContext = getApplicationContext();
+        final Uri productUri = mCurrentProductUri;
+        final int version = mVersion;
+
+        ProductImageEncoder.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (bitmap != null) {
+                    ProductImageEncoder.EncodedImage image = new ProductImageEncoder().encode(bitmap);
+                    values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, image.picture);
+                    values.put(ProductEntry.COLUMN_PRODUCT_THUMBNAIL, image.thumbnail);
+                }
+                showToast(appContext, writeProduct(contentResolver, productUri, values, version,
+                        quantityDelta, stockReason));
+            }
+        });
+    }
+
+    /**
+     * Remove a field from the values if the user didn't change it.
+     */
+    private static void removeIfUnchanged(ContentValues values, String column, String value,
+                                          String loadedValue) {
+        if (value.equals(loadedValue)) {
+            values.remove(column);
+        }
+    }
+
+    /**
+     * Insert the product if productUri is null, otherwise update it from the given version and
+     * record the change of its stock. Return the id of the message to show to the user.
+     */
+    private static int writeProduct(ContentResolver contentResolver, Uri productUri,
+                                    ContentValues values, int version, int quantityDelta,
+                                    String stockReason) {
+        // Determine if this is a new or existing product by checking if productUri is null or not
+        if (productUri == null) {
             // This is a NEW product, so insert a new product into the provider,
             // returning the content URI for the new product.
-            Uri newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
+            Uri newUri = contentResolver.insert(ProductEntry.CONTENT_URI, values);
 
             // Show a toast message depending on whether or not the insertion was successful.
             if (newUri == null) {
                 // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_product_failed),
-                        Toast.LENGTH_SHORT).show();
+                return R.string.editor_insert_product_failed;
             } else {
                 // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_product_successful),
-                        Toast.LENGTH_SHORT).show();
+                return R.string.editor_insert_product_successful;
             }
         } else {
-            // Otherwise this is an EXISTING product, so update the product with content URI: mCurrentProductUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because mCurrentProductUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentProductUri, values, null, null);
+            // Otherwise this is an EXISTING product, so update the product with content URI: productUri
+            // and pass in the new ContentValues. The update is only applied if the product still
+            // has the version read by the editor. If it was changed meanwhile, read its new version
+            // and try again: the values only hold the fields the user edited, so writing them over
+            // the new version merges both changes.
+            long id = ContentUris.parseId(productUri);
+            int rowsAffected = 1;
+            if (values.size() != 0) {
+                rowsAffected = 0;
+                for (int attempt = 0; attempt < MAX_SAVE_ATTEMPTS && version >= 0; attempt++) {
+                    // The provider replaces the picture bytes by their key, so give it a copy
+                    rowsAffected = contentResolver.update(
+                            ProductEntry.buildVersionedUri(id, version),
+                            new ContentValues(values), null, null);
+                    if (rowsAffected != 0) {
+                        break;
+                    }
+                    // -1 if the product was deleted meanwhile
+                    version = queryVersion(contentResolver, productUri);
+                }
+            }
+
+            // Record the change of the stock, the provider refuses it if not enough is left
+            if (rowsAffected != 0 && quantityDelta != 0) {
+                Uri adjustUri = ProductEntry.buildAdjustUri(id, quantityDelta, stockReason);
+                if (contentResolver.update(adjustUri, null, null, null) < 0) {
+                    rowsAffected = 0;
+                }
+            }
 
             // Show a toast message depending on whether or not the update was successful.
             if (rowsAffected == 0) {
                 // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_product_failed),
-                        Toast.LENGTH_SHORT).show();
+                return R.string.editor_update_product_failed;
             } else {
                 // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_product_successful),
-                        Toast.LENGTH_SHORT).show();
+                return R.string.editor_update_product_successful;
             }
         }
     }
 
+    /**
+     * Return the current version of a product, or -1 if it doesn't exist.
+     */
+    private static int queryVersion(ContentResolver contentResolver, Uri productUri) {
+        Cursor cursor = contentResolver.query(productUri,
+                new String[] { ProductEntry.COLUMN_PRODUCT_VERSION }, null, null, null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Show a toast from any thread.
+     */
+    private static void showToast(final Context context, final int messageId) {
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(context, context.getString(messageId), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_editor.xml file.
@@ -370,7 +545,10 @@ public class EditorActivity extends AppCompatActivity implements
                 ProductEntry.COLUMN_PRODUCT_QUANTITY,
                 ProductEntry.COLUMN_PRODUCT_SUPPLIER,
                 ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL,
-                ProductEntry.COLUMN_PRODUCT_PICTURE};
+                ProductEntry.COLUMN_PRODUCT_IMAGE_KEY,
+                ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD,
+                ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY,
+                ProductEntry.COLUMN_PRODUCT_VERSION};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -397,7 +575,12 @@ public class EditorActivity extends AppCompatActivity implements
             int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
             int supplierColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
             int supplierEmailColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL);
-            int pictureColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PICTURE);
+            int imageKeyColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY);
+            int reorderThresholdColumnIndex =
+                    cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD);
+            int targetQuantityColumnIndex =
+                    cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY);
+            int versionColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_VERSION);
 
             // Extract out the value from the Cursor for the given column index
             String name = cursor.getString(nameColumnIndex);
@@ -405,20 +588,84 @@ public class EditorActivity extends AppCompatActivity implements
             int quantity = cursor.getInt(quantityColumnIndex);
             String supplier = cursor.getString(supplierColumnIndex);
             String supplierEmail = cursor.getString(supplierEmailColumnIndex);
-            byte[] picture = cursor.getBlob(pictureColumnIndex);
-
-            // Update the views on the screen with the values from the database
-            mNameEditText.setText(name);
-            mPriceEditText.setText(Integer.toString(price));
-            mQuantityEditText.setText(Integer.toString(quantity));
-            mSupplier.setText(supplier);
-            mSupplierEmail.setText(supplierEmail);
-            // Convert the picture from byte[] to Bitmap
+            String imageKey = cursor.getString(imageKeyColumnIndex);
+            String priceString = Integer.toString(price);
+            String reorderThresholdString =
+                    Integer.toString(cursor.getInt(reorderThresholdColumnIndex));
+            String targetQuantityString =
+                    Integer.toString(cursor.getInt(targetQuantityColumnIndex));
+
+            // Update the views on the screen with the values from the database. The loader
+            // reloads whenever the product changes: a field the user already edited keeps the
+            // edit, and an edited quantity keeps the change the user made to it.
+            boolean firstLoad = mLoadedName == null;
+            mergeField(mNameEditText, firstLoad, mLoadedName, name);
+            mergeField(mPriceEditText, firstLoad, mLoadedPrice, priceString);
+            mergeField(mSupplier, firstLoad, mLoadedSupplier, supplier);
+            mergeField(mSupplierEmail, firstLoad, mLoadedSupplierEmail, supplierEmail);
+            mergeField(mReorderThresholdEditText, firstLoad, mLoadedReorderThreshold,
+                    reorderThresholdString);
+            mergeField(mTargetQuantityEditText, firstLoad, mLoadedTargetQuantity,
+                    targetQuantityString);
+            mergeQuantity(firstLoad, quantity);
 
             quantityDB = quantity;
-            Bitmap bitmapPicture = DbBitmapUtility.getImage(picture);
-            mPicture.setImageBitmap(bitmapPicture);
+            mLoadedName = name;
+            mLoadedPrice = priceString;
+            mLoadedSupplier = supplier;
+            mLoadedSupplierEmail = supplierEmail;
+            mLoadedReorderThreshold = reorderThresholdString;
+            mLoadedTargetQuantity = targetQuantityString;
+            mVersion = cursor.getInt(versionColumnIndex);
+
+            // The loader also reloads when only the quantity changes, keep the picture shown
+            // unless it is a different one
+            if (mPictureChanged || (mImageKey != null && mImageKey.equals(imageKey))) {
+                return;
+            }
+            mImageKey = imageKey;
+            if (imageKey == null) {
+                mPicture.setImageResource(R.drawable.no_image);
+                return;
+            }
 
+            // Get the picture from the bitmap cache, it is only decoded from the image store
+            // the first time the product is opened, and only as big as the view shows it
+            final ProductImageStore imageStore = new ProductImageStore(this);
+            final String key = imageKey;
+            ViewGroup.LayoutParams params = mPicture.getLayoutParams();
+            int viewSize = Math.max(params.width, params.height);
+            final int targetSize = viewSize > 0 ? viewSize
+                    : ProductImageEncoder.DEFAULT_MAX_DIMENSION;
+            ProductBitmapCache.getInstance(this).load(ContentUris.parseId(mCurrentProductUri), key,
+                    ProductBitmapCache.VARIANT_PICTURE,
+                    new ProductBitmapCache.Decoder() {
+                        @Override
+                        public Bitmap decode() {
+                            try {
+                                byte[] picture = imageStore.get(key);
+                                return picture == null ? null
+                                        : DbBitmapUtility.getImage(picture, targetSize);
+                            } catch (IOException e) {
+                                Log.e(LOG_TAG, "Failed to read picture " + key, e);
+                                return null;
+                            }
+                        }
+                    },
+                    new ProductBitmapCache.Callback() {
+                        @Override
+                        public void onBitmapLoaded(Bitmap bitmap) {
+                            // Ignore the result if the user picked another picture meanwhile
+                            if (isFinishing() || mPictureChanged || !key.equals(mImageKey)) {
+                                return;
+                            }
+                            if (bitmap != null) {
+                                mPicture.setImageBitmap(bitmap);
+                            } else {
+                                mPicture.setImageResource(R.drawable.no_image);
+                            }
+                        }
+                    });
         }
     }
 
@@ -430,7 +677,40 @@ public class EditorActivity extends AppCompatActivity implements
         mQuantityEditText.setText("");
         mSupplier.setText("");
         mSupplierEmail.setText("");
+        mReorderThresholdEditText.setText("");
+        mTargetQuantityEditText.setText("");
         mPicture.setImageBitmap(null);
+        mImageKey = null;
+        mLoadedName = null;
+    }
+
+    /**
+     * Show the value read from the database in a field, unless the user edited the field since
+     * the previous value was read.
+     */
+    private static void mergeField(EditText field, boolean firstLoad, String loadedValue,
+                                   String value) {
+        if (firstLoad || field.getText().toString().trim().equals(loadedValue)) {
+            field.setText(value);
+        }
+    }
+
+    /**
+     * Show the quantity read from the database. If the user edited the quantity, the change
+     * they made is applied to the new quantity instead.
+     */
+    private void mergeQuantity(boolean firstLoad, int quantity) {
+        if (firstLoad) {
+            mQuantityEditText.setText(Integer.toString(quantity));
+            return;
+        }
+        String quantityString = mQuantityEditText.getText().toString().trim();
+        try {
+            int edited = Integer.parseInt(quantityString);
+            mQuantityEditText.setText(Integer.toString(Math.max(0, edited + quantity - quantityDB)));
+        } catch (NumberFormatException e) {
+            // Leave a field the user is still typing in alone
+        }
     }
 
     /**
@@ -553,7 +833,8 @@ public class EditorActivity extends AppCompatActivity implements
                 startActivity(intent);
             }
 
-            // To save the changes to products DB
+            // To save the changes to products DB, the new stock comes from the supplier
+            mStockReason = StockMovementEntry.REASON_ORDER;
             saveProduct();
         }
     }
@@ -611,7 +892,8 @@ public class EditorActivity extends AppCompatActivity implements
 
         // Set Quantity Text Field by updated
         mQuantityEditText.setText("" + saleQuantity);
-        // Update Database
+        // Update Database, recording the change of the stock as a sale
+        mStockReason = StockMovementEntry.REASON_SALE;
         saveProduct();
 
         // To reset saleQuantity counter
@@ -653,15 +935,82 @@ public class EditorActivity extends AppCompatActivity implements
             // Create a uri for picture data
             Uri uri = data.getData();
 
-            try {
-                // Create Bitmap variable to put picture data inside it
-                Bitmap bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), uri);
+            // Decode the picture on the image thread, only as big as the view shows it and the
+            // product stores it. A picture still decoding is not wanted anymore.
+            cancelPictureDecode();
+            int targetSize = Math.max(ProductImageEncoder.DEFAULT_MAX_DIMENSION,
+                    Math.max(mPicture.getWidth(), mPicture.getHeight()));
+            mPictureDecode = new PictureDecodeTask(getContentResolver(), uri, targetSize);
+            ProductImageEncoder.getExecutor().execute(mPictureDecode);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Stop decoding the picture if the user leaves the editor
+        cancelPictureDecode();
+        super.onDestroy();
+    }
+
+    private void cancelPictureDecode() {
+        if (mPictureDecode != null) {
+            mPictureDecode.cancel(true);
+            mPictureDecode = null;
+        }
+    }
+
+    /**
+     * Decodes a picked picture in the background and shows it, unless it was cancelled or
+     * another picture was picked meanwhile.
+     */
+    private class PictureDecodeTask extends FutureTask<Bitmap> {
+
+        PictureDecodeTask(final ContentResolver contentResolver, final Uri uri,
+                          final int targetSize) {
+            super(new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() throws IOException {
+                    return new ProductImageDecoder(contentResolver).decode(uri, targetSize);
+                }
+            });
+        }
 
-                mPicture.setImageBitmap(bitmap);
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
 
-            } catch (IOException e) {
-                e.printStackTrace();
+            Bitmap result = null;
+            try {
+                result = get();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Failed to decode picture", e.getCause());
             }
+
+            final Bitmap bitmap = result;
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (mPictureDecode != PictureDecodeTask.this) {
+                        if (bitmap != null) {
+                            bitmap.recycle();
+                        }
+                        return;
+                    }
+                    mPictureDecode = null;
+
+                    if (bitmap == null) {
+                        Toast.makeText(EditorActivity.this, getString(R.string.editor_picture_failed),
+                                Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    mPicture.setImageBitmap(bitmap);
+                    mPictureChanged = true;
+                }
+            });
         }
     }
-}
\ No newline at end of file
+}
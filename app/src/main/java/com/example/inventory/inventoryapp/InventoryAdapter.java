@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.TextView;
+import android.widget.Toast;
+import com.example.inventory.inventoryapp.data.DbBitmapUtility;
+import com.example.inventory.inventoryapp.data.ProductBitmapCache;
+import com.example.inventory.inventoryapp.data.SaleQueue;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+
+/**
+ * {@link InventoryAdapter} is a RecyclerView adapter that shows a list of {@link ProductItem}
+ * snapshots.
+ *
+ * A new snapshot is diffed against the current one on a background thread and only the rows
+ * that changed are rebound; a row whose quantity alone changed only has its quantity rebound.
+ * Binding a row allocates nothing, and all the rows share one pair of click listeners.
+ *
+ * Sales made with the order button are queued in the {@link SaleQueue}; the rows show their
+ * quantity minus the sales not written yet.
+ */
+public class InventoryAdapter extends RecyclerView.Adapter<InventoryAdapter.ViewHolder> {
+
+    /** Payload of a row change where only the quantity changed */
+    private static final Object PAYLOAD_QUANTITY = new Object();
+
+    /** Background thread the snapshots are diffed on */
+    private static final Executor sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Receives the clicks on the rows.
+     */
+    public interface OnProductClickListener {
+        void onProductClick(long id);
+    }
+
+    /**
+     * Views of one list item and the product they currently show.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView nameTextView;
+        final TextView quantityTextView;
+        final TextView priceTextView;
+        final ImageView thumbnailView;
+        final Button orderButton;
+
+        // Product shown by the row and the image key of its thumbnail
+        long productId = -1;
+        String imageKey;
+
+        ViewHolder(View view) {
+            super(view);
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            quantityTextView = (TextView) view.findViewById(R.id.quantity);
+            priceTextView = (TextView) view.findViewById(R.id.price);
+            thumbnailView = (ImageView) view.findViewById(R.id.thumbnail);
+            orderButton = (Button) view.findViewById(R.id.order_button);
+        }
+    }
+
+    private final Context mContext;
+    private final OnProductClickListener mOnProductClickListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Cache of the decoded thumbnails, shared with the editor
+    private final ProductBitmapCache mBitmapCache;
+
+    // Sales waiting to be written
+    private final SaleQueue mSaleQueue;
+
+    /** Snapshot shown by the list */
+    private List<ProductItem> mItems = Collections.emptyList();
+
+    /** Incremented for every new snapshot, so a late diff of an older one is dropped */
+    private int mGeneration;
+
+    /*
+     * Row click
+     * one listener for all the rows, the row's product is found from its view holder
+     */
+    private final View.OnClickListener mItemClickListener = new View.OnClickListener() {
+
+        @Override
+        public void onClick(View view) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+            mOnProductClickListener.onProductClick(holder.productId);
+        }
+    };
+
+    /*
+     * Order button
+     * one listener for all the rows, the row's product is found from the button's view holder
+     * once click reduce the quantity by 1
+     */
+    private final View.OnClickListener mOrderClickListener = new View.OnClickListener() {
+
+        @Override
+        public void onClick(View view) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+            int position = holder.getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+
+            // Nothing left once the sales not written yet are counted
+            ProductItem item = mItems.get(position);
+            if (item.quantity - mSaleQueue.getPendingQuantity(item.id) <= 0) {
+                Toast.makeText(mContext, mContext.getString(R.string.toast_product_empty), Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            // Queue the sale of 1 and show the new quantity right away, the queue writes the
+            // sales of a burst of taps together
+            mSaleQueue.sell(item.id, 1);
+            notifyItemChanged(position, PAYLOAD_QUANTITY);
+        }
+    };
+
+
+    /**
+     * Constructs a new {@link InventoryAdapter}.
+     *
+     * @param context  The context
+     * @param listener Receives the clicks on the rows
+     */
+    public InventoryAdapter(Context context, OnProductClickListener listener) {
+        mContext = context;
+        mOnProductClickListener = listener;
+        mBitmapCache = ProductBitmapCache.getInstance(context);
+        mSaleQueue = SaleQueue.getInstance(context);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show a new snapshot. It is diffed against the current one on a background thread, then
+     * only the changes are dispatched to the list. Null clears the list.
+     */
+    public void submitList(List<ProductItem> items) {
+        final List<ProductItem> newItems =
+                items != null ? items : Collections.<ProductItem>emptyList();
+        final List<ProductItem> oldItems = mItems;
+        final int generation = ++mGeneration;
+
+        // Nothing to diff against, or nothing left: just swap the whole list
+        if (oldItems.isEmpty() || newItems.isEmpty()) {
+            mItems = newItems;
+            notifyDataSetChanged();
+            return;
+        }
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result =
+                        DiffUtil.calculateDiff(new SnapshotDiff(oldItems, newItems));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer snapshot was submitted meanwhile, its diff will follow
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mItems = newItems;
+                        result.dispatchUpdatesTo(InventoryAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Show the quantity of a product again, after its pending sales changed.
+     */
+    public void refreshQuantity(long productId) {
+        for (int i = 0; i < mItems.size(); i++) {
+            if (mItems.get(i).id == productId) {
+                notifyItemChanged(i, PAYLOAD_QUANTITY);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Show the quantity of every product again.
+     */
+    public void refreshQuantities() {
+        notifyItemRangeChanged(0, mItems.size(), PAYLOAD_QUANTITY);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).id;
+    }
+
+    /**
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     */
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        // Inflate a list item view using the layout specified in list_item.xml
+        View view = LayoutInflater.from(mContext).inflate(R.layout.list_item, parent, false);
+
+        // Find the views once, they are reused every time the view is bound
+        ViewHolder holder = new ViewHolder(view);
+        view.setTag(holder);
+        view.setOnClickListener(mItemClickListener);
+        holder.orderButton.setTag(holder);
+        holder.orderButton.setOnClickListener(mOrderClickListener);
+        return holder;
+    }
+
+    /**
+     * Only rebind the quantity when it is the only thing that changed.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+        if (!payloads.isEmpty() && allQuantity(payloads)) {
+            holder.quantityTextView.setText(quantityText(mItems.get(position)));
+            return;
+        }
+        onBindViewHolder(holder, position);
+    }
+
+    /**
+     * This method binds the product data at the given position to the given list item layout.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        ProductItem item = mItems.get(position);
+
+        // Update the TextViews with the attributes for the current product
+        holder.nameTextView.setText(item.name);
+        holder.quantityTextView.setText(quantityText(item));
+        holder.priceTextView.setText(item.price);
+
+        if (item.id == holder.productId && TextUtils.equals(item.imageKey, holder.imageKey)) {
+            // The row already shows this product's thumbnail
+            return;
+        }
+        holder.productId = item.id;
+        holder.imageKey = item.imageKey;
+
+        // Show the thumbnail, it is only decoded the first time the product is shown
+        Bitmap thumbnail = null;
+        if (item.imageKey != null) {
+            thumbnail = mBitmapCache.getFromMemory(item.id, item.imageKey,
+                    ProductBitmapCache.VARIANT_THUMBNAIL);
+            if (thumbnail == null && item.thumbnail != null) {
+                thumbnail = DbBitmapUtility.getImage(item.thumbnail);
+                mBitmapCache.putInMemory(item.id, item.imageKey,
+                        ProductBitmapCache.VARIANT_THUMBNAIL, thumbnail);
+            }
+        }
+        if (thumbnail != null) {
+            holder.thumbnailView.setImageBitmap(thumbnail);
+        } else {
+            holder.thumbnailView.setImageResource(R.drawable.no_image);
+        }
+    }
+
+    /**
+     * Return the quantity to show for a product, less its sales not written yet.
+     */
+    private String quantityText(ProductItem item) {
+        int pending = mSaleQueue.getPendingQuantity(item.id);
+        return pending == 0 ? item.quantityText : Integer.toString(item.quantity - pending);
+    }
+
+    private static boolean allQuantity(List<Object> payloads) {
+        for (int i = 0; i < payloads.size(); i++) {
+            if (payloads.get(i) != PAYLOAD_QUANTITY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two snapshots: rows are the same product if they have the same id.
+     */
+    private static class SnapshotDiff extends DiffUtil.Callback {
+
+        private final List<ProductItem> mOldItems;
+        private final List<ProductItem> mNewItems;
+
+        SnapshotDiff(List<ProductItem> oldItems, List<ProductItem> newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).id == mNewItems.get(newItemPosition).id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).hasSameContent(mNewItems.get(newItemPosition));
+        }
+
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).differsOnlyByQuantity(
+                    mNewItems.get(newItemPosition)) ? PAYLOAD_QUANTITY : null;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.app.AppCompatActivity;
+import android.text.format.DateUtils;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import com.example.inventory.inventoryapp.data.InventoryContract;
+import com.example.inventory.inventoryapp.data.InventoryContract.Metrics;
+import com.example.inventory.inventoryapp.data.SaleQueue;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Debug screen showing the metrics of the provider: for every operation and URI pattern that
+ * ran, the number of calls, the latency percentiles read from its histogram and the rows, the
+ * slowest in total first. The metrics can be reset, and turned on or off. The state of the
+ * {@link SaleQueue} of the catalog is shown with them.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    /** Shows the metrics */
+    private TextView mMetricsTextView;
+
+    /** True if the provider records the metrics, as of the last load */
+    private boolean mEnabled;
+
+    /** Used to show the results of the background work */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+        mMetricsTextView = (TextView) findViewById(R.id.metrics);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        loadMetrics(null);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        // Inflate the menu options from the res/menu/menu_metrics.xml file.
+        getMenuInflater().inflate(R.menu.menu_metrics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        menu.findItem(R.id.action_toggle_metrics).setTitle(mEnabled
+                ? R.string.action_disable_metrics : R.string.action_enable_metrics);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_refresh_metrics:
+                loadMetrics(null);
+                return true;
+            case R.id.action_reset_metrics:
+                loadMetrics(Metrics.ARG_RESET);
+                return true;
+            case R.id.action_toggle_metrics:
+                loadMetrics(mEnabled ? Metrics.ARG_DISABLE : Metrics.ARG_ENABLE);
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Read the metrics in the background with the given arg of the metrics call, then show
+     * them.
+     */
+    private void loadMetrics(final String arg) {
+        final ContentResolver contentResolver = getContentResolver();
+        final Context appContext = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bundle metrics = contentResolver.call(InventoryContract.BASE_CONTENT_URI,
+                        Metrics.METHOD_METRICS, arg, null);
+                SaleQueue.Stats sales = SaleQueue.getInstance(appContext).getStats();
+                final String text = metrics == null
+                        ? null : formatMetrics(appContext, metrics, sales);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing() || metrics == null) {
+                            return;
+                        }
+                        mEnabled = metrics.getBoolean(Metrics.EXTRA_ENABLED);
+                        mMetricsTextView.setText(text);
+                        invalidateOptionsMenu();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Return the text of the metrics: what was recorded and for how long, the sale queue, then
+     * one entry per operation and URI pattern, the largest total time first.
+     */
+    private static String formatMetrics(Context context, Bundle metrics, SaleQueue.Stats sales) {
+        final String[] operations = metrics.getStringArray(Metrics.EXTRA_OPERATIONS);
+        final String[] patterns = metrics.getStringArray(Metrics.EXTRA_PATTERNS);
+        final long[] counts = metrics.getLongArray(Metrics.EXTRA_COUNTS);
+        final long[] totalMicros = metrics.getLongArray(Metrics.EXTRA_TOTAL_MICROS);
+        final long[] maxMicros = metrics.getLongArray(Metrics.EXTRA_MAX_MICROS);
+        final long[] rows = metrics.getLongArray(Metrics.EXTRA_ROWS);
+        final long[] histograms = metrics.getLongArray(Metrics.EXTRA_HISTOGRAMS);
+
+        StringBuilder text = new StringBuilder(context.getString(R.string.metrics_header,
+                context.getString(metrics.getBoolean(Metrics.EXTRA_ENABLED)
+                        ? R.string.metrics_on : R.string.metrics_off),
+                DateUtils.formatElapsedTime(
+                        metrics.getLong(Metrics.EXTRA_ELAPSED_MILLIS) / 1000),
+                metrics.getLong(Metrics.EXTRA_NOTIFICATIONS_REQUESTED),
+                metrics.getLong(Metrics.EXTRA_NOTIFICATIONS_SENT),
+                metrics.getLong(Metrics.EXTRA_LARGE_CURSORS)));
+        text.append("\n\n").append(context.getString(R.string.metrics_sales,
+                sales.pendingUnits, sales.pendingProducts, sales.flushes, sales.unitsWritten,
+                sales.unitsRefused, sales.lastFlushLatencyMillis, sales.maxFlushLatencyMillis));
+
+        if (counts == null || counts.length == 0) {
+            text.append("\n\n").append(context.getString(R.string.metrics_empty));
+            return text.toString();
+        }
+
+        // Slowest in total first
+        Integer[] order = new Integer[counts.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.valueOf(totalMicros[b]).compareTo(totalMicros[a]);
+            }
+        });
+
+        for (int i : order) {
+            int offset = i * Metrics.HISTOGRAM_BUCKETS;
+            text.append("\n\n").append(context.getString(R.string.metrics_row,
+                    operations[i], patterns[i], counts[i],
+                    formatMicros(context, totalMicros[i] / counts[i]),
+                    formatPercentile(context, histograms, offset, counts[i], 50),
+                    formatPercentile(context, histograms, offset, counts[i], 95),
+                    formatPercentile(context, histograms, offset, counts[i], 99),
+                    formatMicros(context, maxMicros[i]), rows[i]));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Return the bound of the histogram bucket holding the given percentile of the calls.
+     */
+    private static String formatPercentile(Context context, long[] histograms, int offset,
+                                           long count, int percentile) {
+        long rank = (count * percentile + 99) / 100;
+        long seen = 0;
+        for (int b = 0; b < Metrics.HISTOGRAM_BUCKETS - 1; b++) {
+            seen += histograms[offset + b];
+            if (seen >= rank) {
+                // Bucket b holds the calls under 2^b microseconds
+                return context.getString(R.string.metrics_under,
+                        formatMicros(context, 1L << b));
+            }
+        }
+        return context.getString(R.string.metrics_over,
+                formatMicros(context, 1L << (Metrics.HISTOGRAM_BUCKETS - 2)));
+    }
+
+    private static String formatMicros(Context context, long micros) {
+        if (micros < 1000) {
+            return context.getString(R.string.metrics_micros, micros);
+        }
+        return context.getString(R.string.metrics_millis, micros / 1000f);
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp;
+
+import android.app.AlertDialog;
+import android.app.LoaderManager;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.CursorLoader;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.Loader;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.app.AppCompatActivity;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.CursorAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
+import com.example.inventory.inventoryapp.data.InventoryContract.OrderEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.OrderItemEntry;
+
+/**
+ * Lists the purchase orders, newest first, and generates the orders of the low stock products.
+ *
+ * Tapping an order shows it as the document sent to the supplier, which can be emailed, and
+ * receives it once the products came in. Long pressing an open order cancels it.
+ */
+public class OrdersActivity extends AppCompatActivity
+        implements LoaderManager.LoaderCallbacks<Cursor> {
+
+    /** Identifier for the orders loader */
+    private static final int ORDERS_LOADER = 0;
+
+    /** Columns of the orders shown in the list */
+    private static final String[] PROJECTION = {
+            OrderEntry._ID,
+            OrderEntry.COLUMN_SUPPLIER,
+            OrderEntry.COLUMN_SUPPLIER_EMAIL,
+            OrderEntry.COLUMN_STATUS,
+            OrderEntry.COLUMN_CREATED_AT,
+            OrderEntry.COLUMN_ITEM_COUNT,
+            OrderEntry.COLUMN_TOTAL_QUANTITY};
+
+    // Indices of the columns in PROJECTION
+    private static final int ID_INDEX = 0;
+    private static final int SUPPLIER_INDEX = 1;
+    private static final int SUPPLIER_EMAIL_INDEX = 2;
+    private static final int STATUS_INDEX = 3;
+    private static final int CREATED_AT_INDEX = 4;
+    private static final int ITEM_COUNT_INDEX = 5;
+    private static final int TOTAL_QUANTITY_INDEX = 6;
+
+    /** Adapter for the ListView */
+    private OrderCursorAdapter mAdapter;
+
+    /** Used to show the results of the background work */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_orders);
+
+        ListView orderListView = (ListView) findViewById(R.id.list);
+        orderListView.setEmptyView(findViewById(R.id.empty_view));
+        mAdapter = new OrderCursorAdapter(this);
+        orderListView.setAdapter(mAdapter);
+
+        // Show the order that was clicked on
+        orderListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                Cursor cursor = (Cursor) mAdapter.getItem(position);
+                showOrder(id, cursor.getString(SUPPLIER_INDEX),
+                        cursor.getString(SUPPLIER_EMAIL_INDEX),
+                        OrderEntry.STATUS_OPEN.equals(cursor.getString(STATUS_INDEX)));
+            }
+        });
+
+        // Offer to cancel the open order that was long pressed
+        orderListView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> parent, View view, int position,
+                                           long id) {
+                Cursor cursor = (Cursor) mAdapter.getItem(position);
+                if (!OrderEntry.STATUS_OPEN.equals(cursor.getString(STATUS_INDEX))) {
+                    return false;
+                }
+                showCancelConfirmationDialog(id);
+                return true;
+            }
+        });
+
+        // Kick off the loader
+        getLoaderManager().initLoader(ORDERS_LOADER, null, this);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        // Inflate the menu options from the res/menu/menu_orders.xml file.
+        getMenuInflater().inflate(R.menu.menu_orders, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_generate_orders:
+                generateOrders();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Generate the orders of the low stock products in the background. The list reloads by
+     * itself once they are written.
+     */
+    private void generateOrders() {
+        final ContentResolver contentResolver = getContentResolver();
+        final Context appContext = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bundle result = contentResolver.call(OrderEntry.CONTENT_URI,
+                        OrderEntry.METHOD_GENERATE, null, null);
+                int orderCount = result == null ? 0 : result.getInt(OrderEntry.EXTRA_ORDER_COUNT);
+                final String message = orderCount == 0
+                        ? appContext.getString(R.string.orders_none_generated)
+                        : appContext.getString(R.string.orders_generated, orderCount,
+                                result.getInt(OrderEntry.EXTRA_ITEM_COUNT));
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(appContext, message, Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read the items of an order in the background, then show the order as the document sent
+     * to its supplier.
+     */
+    private void showOrder(final long id, final String supplier, final String supplierEmail,
+                           final boolean open) {
+        final ContentResolver contentResolver = getContentResolver();
+        final Context appContext = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final String document = buildDocument(appContext, contentResolver, id, supplier);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinishing()) {
+                            showOrderDialog(id, supplierEmail, open, document);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Return the text of an order as sent to its supplier: one line per product, then the
+     * total number of units.
+     */
+    private static String buildDocument(Context context, ContentResolver contentResolver,
+                                        long id, String supplier) {
+        StringBuilder document = new StringBuilder(
+                context.getString(R.string.order_document_greeting, supplier));
+        int total = 0;
+        Cursor cursor = contentResolver.query(OrderEntry.buildItemsUri(id),
+                new String[] { OrderItemEntry.COLUMN_NAME, OrderItemEntry.COLUMN_QUANTITY },
+                null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    int quantity = cursor.getInt(1);
+                    document.append(context.getString(R.string.order_document_line, quantity,
+                            cursor.getString(0)));
+                    total += quantity;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        document.append(context.getString(R.string.order_document_closing, total, id));
+        return document.toString();
+    }
+
+    /**
+     * Show an order. An open order can be emailed to its supplier if it has an email, and
+     * received.
+     */
+    private void showOrderDialog(final long id, final String supplierEmail, boolean open,
+                                 final String document) {
+        final String subject = getString(R.string.order_document_subject, id);
+        AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                .setTitle(subject)
+                .setMessage(document)
+                .setNegativeButton(R.string.close, null);
+        if (open && !TextUtils.isEmpty(supplierEmail)) {
+            builder.setPositiveButton(R.string.order_send, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    sendOrder(supplierEmail, subject, document);
+                }
+            });
+        }
+        if (open) {
+            builder.setNeutralButton(R.string.order_receive,
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            closeOrder(id, OrderEntry.STATUS_RECEIVED);
+                        }
+                    });
+        }
+        builder.show();
+    }
+
+    /**
+     * Email an order to its supplier.
+     */
+    private void sendOrder(String supplierEmail, String subject, String document) {
+        Intent intent = new Intent(Intent.ACTION_SENDTO);
+        intent.setData(Uri.parse("mailto:" + supplierEmail)); // only email apps should handle this
+        intent.putExtra(Intent.EXTRA_SUBJECT, subject);
+        intent.putExtra(Intent.EXTRA_TEXT, document);
+
+        // Check if there is no error, then start intent activity
+        if (intent.resolveActivity(getPackageManager()) != null) {
+            startActivity(intent);
+        }
+    }
+
+    /**
+     * Prompt the user to confirm that they want to cancel an open order.
+     */
+    private void showCancelConfirmationDialog(final long id) {
+        new AlertDialog.Builder(this)
+                .setMessage(R.string.order_cancel_dialog_msg)
+                .setPositiveButton(R.string.order_cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        closeOrder(id, OrderEntry.STATUS_CANCELLED);
+                    }
+                })
+                .setNegativeButton(R.string.keep_order, null)
+                .show();
+    }
+
+    /**
+     * Receive or cancel an open order in the background. A received order adds its products
+     * to the stock.
+     */
+    private void closeOrder(final long id, final String status) {
+        final ContentResolver contentResolver = getContentResolver();
+        final Context appContext = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues values = new ContentValues();
+                values.put(OrderEntry.COLUMN_STATUS, status);
+                int rowsUpdated = contentResolver.update(
+                        ContentUris.withAppendedId(OrderEntry.CONTENT_URI, id), values, null, null);
+                final int messageId;
+                if (rowsUpdated == 0) {
+                    messageId = R.string.order_not_open;
+                } else if (OrderEntry.STATUS_RECEIVED.equals(status)) {
+                    messageId = R.string.order_received;
+                } else {
+                    messageId = R.string.order_cancelled;
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(appContext, messageId, Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        // This loader will execute the ContentProvider's query method on a background thread
+        return new CursorLoader(this, OrderEntry.CONTENT_URI, PROJECTION, null, null, null);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        // Update {@link OrderCursorAdapter} with this new cursor containing updated order data
+        mAdapter.swapCursor(data);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        // Callback called when the data needs to be deleted
+        mAdapter.swapCursor(null);
+    }
+
+    /**
+     * Shows one order per row: the supplier, then its status, date and size.
+     */
+    private static class OrderCursorAdapter extends CursorAdapter {
+
+        OrderCursorAdapter(Context context) {
+            super(context, null, 0);
+        }
+
+        @Override
+        public View newView(Context context, Cursor cursor, ViewGroup parent) {
+            return LayoutInflater.from(context).inflate(android.R.layout.simple_list_item_2,
+                    parent, false);
+        }
+
+        @Override
+        public void bindView(View view, Context context, Cursor cursor) {
+            TextView supplierTextView = (TextView) view.findViewById(android.R.id.text1);
+            TextView summaryTextView = (TextView) view.findViewById(android.R.id.text2);
+
+            supplierTextView.setText(cursor.getString(SUPPLIER_INDEX));
+            summaryTextView.setText(context.getString(R.string.order_summary,
+                    context.getString(statusLabel(cursor.getString(STATUS_INDEX))),
+                    DateUtils.formatDateTime(context, cursor.getLong(CREATED_AT_INDEX),
+                            DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME),
+                    cursor.getInt(ITEM_COUNT_INDEX), cursor.getInt(TOTAL_QUANTITY_INDEX)));
+        }
+
+        /**
+         * Return the id of the label of an order status.
+         */
+        private static int statusLabel(String status) {
+            if (OrderEntry.STATUS_RECEIVED.equals(status)) {
+                return R.string.order_status_received;
+            } else if (OrderEntry.STATUS_CANCELLED.equals(status)) {
+                return R.string.order_status_cancelled;
+            }
+            return R.string.order_status_open;
+        }
+    }
+}
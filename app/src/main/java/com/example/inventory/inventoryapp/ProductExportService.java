@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+import com.example.inventory.inventoryapp.data.InventoryContract.PictureEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Exports all the products, and optionally their pictures, in the background.
+ *
+ * The export goes to a new folder in the app's external files directory, which can be copied
+ * off the device: a "products.csv" or "products.json" file streamed from the provider's export
+ * URI, and a "pictures" folder with one file per picture, named as in the export. A
+ * notification shows the folder when the export is done.
+ */
+public class ProductExportService extends IntentService {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ProductExportService.class.getSimpleName();
+
+    /** Extras of the intent: the format and whether the pictures are exported */
+    private static final String EXTRA_FORMAT = "format";
+    private static final String EXTRA_PICTURES = "pictures";
+
+    /** Id of the export notification */
+    private static final int NOTIFICATION_ID = 2;
+
+    /** Number of picture keys listed per query */
+    private static final int PICTURE_PAGE_SIZE = 500;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Start exporting the products in the given format, {@link ProductEntry#FORMAT_CSV} or
+     * {@link ProductEntry#FORMAT_JSON}.
+     */
+    public static void start(Context context, String format, boolean pictures) {
+        Intent intent = new Intent(context, ProductExportService.class);
+        intent.putExtra(EXTRA_FORMAT, format);
+        intent.putExtra(EXTRA_PICTURES, pictures);
+        context.startService(intent);
+    }
+
+    public ProductExportService() {
+        super(LOG_TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        String format = intent.getStringExtra(EXTRA_FORMAT);
+        boolean pictures = intent.getBooleanExtra(EXTRA_PICTURES, false);
+
+        NotificationManager notificationManager =
+                (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_upload)
+                .setContentTitle(getString(R.string.export_title))
+                .setOngoing(true)
+                .setProgress(0, 0, true);
+        startForeground(NOTIFICATION_ID, builder.build());
+
+        File directory = null;
+        try {
+            directory = createExportDirectory();
+            copy(ProductEntry.buildExportUri(format, pictures),
+                    new File(directory, "products." + format));
+            if (pictures) {
+                exportPictures(new File(directory, "pictures"));
+            }
+        } catch (IOException | IllegalArgumentException | SecurityException e) {
+            Log.e(LOG_TAG, "Failed to export products", e);
+            directory = null;
+        }
+        stopForeground(true);
+
+        // Report the outcome
+        NotificationCompat.Builder done = new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_upload_done)
+                .setAutoCancel(true);
+        if (directory == null) {
+            done.setContentTitle(getString(R.string.export_failed));
+        } else {
+            done.setContentTitle(getString(R.string.export_done))
+                    .setContentText(directory.getPath())
+                    .setStyle(new NotificationCompat.BigTextStyle().bigText(directory.getPath()));
+        }
+        notificationManager.notify(NOTIFICATION_ID, done.build());
+    }
+
+    /**
+     * Create a new folder for an export, named after the current time.
+     */
+    private File createExportDirectory() throws IOException {
+        File root = getExternalFilesDir(null);
+        if (root == null) {
+            throw new IOException("External storage is not available");
+        }
+        String name = "inventory-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File directory = new File(new File(root, "exports"), name);
+        if (!directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Can't create " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Copy every picture in use into the given folder, listing the pictures a page at a time.
+     */
+    private void exportPictures(File directory) throws IOException {
+        if (!directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Can't create " + directory);
+        }
+
+        String afterKey = null;
+        int count;
+        do {
+            Uri.Builder pageUri = PictureEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT,
+                            String.valueOf(PICTURE_PAGE_SIZE));
+            if (afterKey != null) {
+                pageUri.appendQueryParameter(PictureEntry.QUERY_PARAMETER_AFTER_KEY, afterKey);
+            }
+            Cursor cursor = getContentResolver().query(pageUri.build(),
+                    new String[] { PictureEntry.COLUMN_KEY }, null, null, null);
+            if (cursor == null) {
+                return;
+            }
+            try {
+                count = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    afterKey = cursor.getString(0);
+                    exportPicture(directory, afterKey);
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (count == PICTURE_PAGE_SIZE);
+    }
+
+    /**
+     * Copy one picture, named like the picture file field of the export.
+     */
+    private void exportPicture(File directory, String key) throws IOException {
+        Uri pictureUri = PictureEntry.buildPictureUri(key);
+        String type = getContentResolver().getType(pictureUri);
+        String extension = type == null ? null
+                : MimeTypeMap.getSingleton().getExtensionFromMimeType(type);
+        try {
+            copy(pictureUri, new File(directory, extension == null ? key : key + "." + extension));
+        } catch (FileNotFoundException e) {
+            // The picture was released since it was listed
+            Log.w(LOG_TAG, "Picture " + key + " is gone", e);
+        }
+    }
+
+    /**
+     * Copy the content at the URI into a file.
+     */
+    private void copy(Uri uri, File file) throws IOException {
+        InputStream in = getContentResolver().openInputStream(uri);
+        if (in == null) {
+            throw new FileNotFoundException("Can't open " + uri);
+        }
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+import com.example.inventory.inventoryapp.data.ProductCsvImporter;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Imports the products of a CSV file given as the data of the intent, in the background.
+ *
+ * The import runs in the foreground with a notification showing its progress, so it goes on
+ * when the user leaves the app. When it's done the notification reports the number of
+ * products imported and the first rows rejected.
+ */
+public class ProductImportService extends IntentService {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ProductImportService.class.getSimpleName();
+
+    /** Id of the import notification */
+    private static final int NOTIFICATION_ID = 1;
+
+    /** Number of rejected rows listed in the notification */
+    private static final int NOTIFIED_REJECTIONS = 5;
+
+    /** Shortest time between two progress updates of the notification */
+    private static final long PROGRESS_INTERVAL_MILLIS = 500;
+
+    /**
+     * Start importing the products of a CSV file.
+     */
+    public static void start(Context context, Uri fileUri) {
+        Intent intent = new Intent(context, ProductImportService.class);
+        intent.setData(fileUri);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        context.startService(intent);
+    }
+
+    public ProductImportService() {
+        super(LOG_TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Uri fileUri = intent.getData();
+        final long fileSize = queryFileSize(fileUri);
+
+        final NotificationManager notificationManager =
+                (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        final NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_download)
+                .setContentTitle(getString(R.string.import_title))
+                .setOngoing(true)
+                .setProgress(0, 0, true);
+        startForeground(NOTIFICATION_ID, builder.build());
+
+        ProductCsvImporter.Report report = null;
+        try {
+            InputStream in = getContentResolver().openInputStream(fileUri);
+            if (in == null) {
+                throw new IOException("Can't open " + fileUri);
+            }
+            try {
+                report = new ProductCsvImporter(getContentResolver()).importProducts(in,
+                        new ProductCsvImporter.ProgressListener() {
+                            private long mLastUpdate;
+
+                            @Override
+                            public void onProgress(long bytesRead, int rowsImported,
+                                                   int rowsRejected) {
+                                long now = SystemClock.uptimeMillis();
+                                if (now - mLastUpdate < PROGRESS_INTERVAL_MILLIS) {
+                                    return;
+                                }
+                                mLastUpdate = now;
+                                builder.setContentText(getString(R.string.import_progress,
+                                        rowsImported, rowsRejected));
+                                if (fileSize > 0) {
+                                    builder.setProgress(100,
+                                            (int) Math.min(100, bytesRead * 100 / fileSize), false);
+                                }
+                                notificationManager.notify(NOTIFICATION_ID, builder.build());
+                            }
+                        });
+            } finally {
+                in.close();
+            }
+        } catch (IOException | IllegalArgumentException | SecurityException e) {
+            Log.e(LOG_TAG, "Failed to import " + fileUri, e);
+        }
+        stopForeground(true);
+
+        // Report the outcome
+        NotificationCompat.Builder done = new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_download_done)
+                .setAutoCancel(true);
+        if (report == null) {
+            done.setContentTitle(getString(R.string.import_failed));
+        } else {
+            String summary = getString(R.string.import_progress, report.rowsImported,
+                    report.rowsRejected);
+            StringBuilder details = new StringBuilder(summary);
+            for (int i = 0; i < report.rejections.size() && i < NOTIFIED_REJECTIONS; i++) {
+                ProductCsvImporter.Rejection rejection = report.rejections.get(i);
+                details.append('\n').append(getString(R.string.import_rejection,
+                        rejection.line, rejection.reason));
+            }
+            done.setContentTitle(getString(R.string.import_done))
+                    .setContentText(summary)
+                    .setStyle(new NotificationCompat.BigTextStyle().bigText(details));
+        }
+        notificationManager.notify(NOTIFICATION_ID, done.build());
+    }
+
+    /**
+     * Return the size of the file in bytes, or -1 if it's not known.
+     */
+    private long queryFileSize(Uri fileUri) {
+        Cursor cursor;
+        try {
+            cursor = getContentResolver().query(fileUri, new String[] { OpenableColumns.SIZE },
+                    null, null, null);
+        } catch (IllegalArgumentException | SecurityException e) {
+            return -1;
+        }
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
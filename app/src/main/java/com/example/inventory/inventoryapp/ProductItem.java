@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+
+/**
+ * Immutable snapshot of one product row of the catalog.
+ *
+ * The catalog is diffed snapshot against snapshot, so everything the list shows is read out of
+ * the cursor on the loader thread and the cursor is closed right away.
+ */
+public class ProductItem {
+
+    /** Columns the snapshots are read from */
+    public static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_KEY,
+            ProductEntry.COLUMN_PRODUCT_THUMBNAIL};
+
+    // Indices of the columns in PROJECTION
+    private static final int ID_INDEX = 0;
+    private static final int NAME_INDEX = 1;
+    private static final int PRICE_INDEX = 2;
+    private static final int QUANTITY_INDEX = 3;
+    private static final int IMAGE_KEY_INDEX = 4;
+    private static final int THUMBNAIL_INDEX = 5;
+
+    public final long id;
+    public final String name;
+    public final String price;
+    public final int quantity;
+
+    /** Quantity as shown, made once here so binding a row doesn't allocate */
+    public final String quantityText;
+
+    public final String imageKey;
+    public final byte[] thumbnail;
+
+    private ProductItem(long id, String name, String price, int quantity, String imageKey,
+                        byte[] thumbnail) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.quantity = quantity;
+        this.quantityText = Integer.toString(quantity);
+        this.imageKey = imageKey;
+        this.thumbnail = thumbnail;
+    }
+
+    /**
+     * Read the snapshot of the current row of a cursor queried with {@link #PROJECTION}.
+     */
+    public static ProductItem fromCursor(Cursor cursor) {
+        return new ProductItem(cursor.getLong(ID_INDEX),
+                cursor.getString(NAME_INDEX),
+                cursor.getString(PRICE_INDEX),
+                cursor.getInt(QUANTITY_INDEX),
+                cursor.getString(IMAGE_KEY_INDEX),
+                cursor.getBlob(THUMBNAIL_INDEX));
+    }
+
+    /**
+     * Return true if the two snapshots show the same thing. The thumbnail only changes with the
+     * image key, so its bytes are not compared.
+     */
+    public boolean hasSameContent(ProductItem other) {
+        return quantity == other.quantity
+                && TextUtils.equals(name, other.name)
+                && TextUtils.equals(price, other.price)
+                && TextUtils.equals(imageKey, other.imageKey);
+    }
+
+    /**
+     * Return true if the two snapshots only differ by their quantity.
+     */
+    public boolean differsOnlyByQuantity(ProductItem other) {
+        return quantity != other.quantity
+                && TextUtils.equals(name, other.name)
+                && TextUtils.equals(price, other.price)
+                && TextUtils.equals(imageKey, other.imageKey);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads a list of {@link ProductItem} snapshots from a product list URI (a catalog page or a
+ * search) and reloads it whenever the products change, like a CursorLoader does.
+ */
+public class ProductListLoader extends AsyncTaskLoader<List<ProductItem>> {
+
+    private final Uri mUri;
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private boolean mObserverRegistered;
+    private List<ProductItem> mItems;
+
+    /**
+     * Constructs a new {@link ProductListLoader}.
+     *
+     * @param context The context
+     * @param uri     Product list URI to query, in the order set by the provider
+     */
+    public ProductListLoader(Context context, Uri uri) {
+        super(context);
+        mUri = uri;
+    }
+
+    @Override
+    public List<ProductItem> loadInBackground() {
+        Cursor cursor = getContext().getContentResolver().query(mUri, ProductItem.PROJECTION,
+                null, null, null);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        try {
+            List<ProductItem> items = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                items.add(ProductItem.fromCursor(cursor));
+            }
+            return Collections.unmodifiableList(items);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<ProductItem> items) {
+        if (isReset()) {
+            return;
+        }
+        mItems = items;
+        if (isStarted()) {
+            super.deliverResult(items);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        // Any change to the products may change this list
+        if (!mObserverRegistered) {
+            getContext().getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI,
+                    true, mObserver);
+            mObserverRegistered = true;
+        }
+
+        if (mItems != null) {
+            deliverResult(mItems);
+        }
+        if (takeContentChanged() || mItems == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mItems = null;
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp;
+
+import android.app.LoaderManager;
+import android.content.Context;
+import android.content.Loader;
+import android.net.Uri;
+import android.os.Bundle;
+import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads the product catalog one page at a time using keyset queries on the provider.
+ *
+ * Every page has its own loader, so only the first page has to be read before the list can be
+ * shown and a change to the products only requeries the pages already loaded. A page is bounded
+ * by the last product of the previous page and, once the next page is requested, by its own
+ * last product, so pages keep covering the same range of products when they are requeried.
+ */
+public class ProductPager implements LoaderManager.LoaderCallbacks<List<ProductItem>> {
+
+    /** Number of products requested per page */
+    public static final int PAGE_SIZE = 50;
+
+    /** Key of the page URI in the loader arguments */
+    private static final String ARG_PAGE_URI = "page_uri";
+
+    /**
+     * Receives the loaded part of the catalog.
+     */
+    public interface Callback {
+
+        /**
+         * Called every time a page is loaded or requeried, with the products of all the pages
+         * loaded so far, or null while the first page is loading.
+         */
+        void onPagesChanged(List<ProductItem> items);
+    }
+
+    /**
+     * Bounds and current data of one page.
+     */
+    private static class Page {
+
+        /** Name and id of the last product of the previous page, or null for the first page */
+        String afterName;
+        long afterId;
+
+        /** Name and id of the last product of this page, or null while this is the last page */
+        String untilName;
+        long untilId;
+
+        /** Current products of the page, or null while it is loading */
+        List<ProductItem> items;
+    }
+
+    private final Context mContext;
+    private final LoaderManager mLoaderManager;
+    private final int mFirstLoaderId;
+    private final Callback mCallback;
+    private final List<Page> mPages = new ArrayList<>();
+
+    /**
+     * Constructs a new {@link ProductPager}.
+     *
+     * @param context       The context
+     * @param loaderManager The loader manager that runs the page loaders
+     * @param firstLoaderId Id of the loader of the first page, the next pages use the ids after it
+     * @param callback      Receives the loaded pages
+     */
+    public ProductPager(Context context, LoaderManager loaderManager, int firstLoaderId,
+                        Callback callback) {
+        mContext = context;
+        mLoaderManager = loaderManager;
+        mFirstLoaderId = firstLoaderId;
+        mCallback = callback;
+    }
+
+    /**
+     * Start loading the first page, or reconnect to the pages already loaded.
+     */
+    public void start() {
+        if (mPages.isEmpty()) {
+            mPages.add(new Page());
+        }
+        for (int i = 0; i < mPages.size(); i++) {
+            mLoaderManager.initLoader(mFirstLoaderId + i, buildArgs(mPages.get(i)), this);
+        }
+    }
+
+    /**
+     * Request the page after the last one, if the last page is loaded and was full.
+     */
+    public void loadNextPage() {
+        if (!hasMore()) {
+            return;
+        }
+
+        // Bound the last page by its current last product and start the next page after it
+        Page lastPage = mPages.get(mPages.size() - 1);
+        ProductItem lastItem = lastPage.items.get(lastPage.items.size() - 1);
+        lastPage.untilName = lastItem.name;
+        lastPage.untilId = lastItem.id;
+        mLoaderManager.restartLoader(mFirstLoaderId + mPages.size() - 1, buildArgs(lastPage), this);
+
+        Page nextPage = new Page();
+        nextPage.afterName = lastPage.untilName;
+        nextPage.afterId = lastPage.untilId;
+        mPages.add(nextPage);
+        mLoaderManager.initLoader(mFirstLoaderId + mPages.size() - 1, buildArgs(nextPage), this);
+    }
+
+    /**
+     * Return true if there may be products after the last loaded page.
+     */
+    public boolean hasMore() {
+        Page lastPage = mPages.get(mPages.size() - 1);
+        return lastPage.untilName == null && lastPage.items != null
+                && lastPage.items.size() >= PAGE_SIZE;
+    }
+
+    /**
+     * Build the loader arguments holding the page URI.
+     */
+    private static Bundle buildArgs(Page page) {
+        Uri.Builder builder = ProductEntry.CONTENT_URI.buildUpon();
+        if (page.afterName != null) {
+            builder.appendQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_NAME, page.afterName);
+            builder.appendQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID,
+                    String.valueOf(page.afterId));
+        }
+        if (page.untilName != null) {
+            builder.appendQueryParameter(ProductEntry.QUERY_PARAMETER_UNTIL_NAME, page.untilName);
+            builder.appendQueryParameter(ProductEntry.QUERY_PARAMETER_UNTIL_ID,
+                    String.valueOf(page.untilId));
+        } else {
+            // Only the last page is open ended, so only it needs a limit
+            builder.appendQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT,
+                    String.valueOf(PAGE_SIZE));
+        }
+
+        Bundle args = new Bundle();
+        args.putParcelable(ARG_PAGE_URI, builder.build());
+        return args;
+    }
+
+    @Override
+    public Loader<List<ProductItem>> onCreateLoader(int id, Bundle args) {
+        // This loader will execute the ContentProvider's query method on a background thread,
+        // in the keyset order set by the provider
+        return new ProductListLoader(mContext, (Uri) args.getParcelable(ARG_PAGE_URI));
+    }
+
+    @Override
+    public void onLoadFinished(Loader<List<ProductItem>> loader, List<ProductItem> data) {
+        int index = loader.getId() - mFirstLoaderId;
+        if (index < mPages.size()) {
+            mPages.get(index).items = data;
+            deliverPages();
+        }
+    }
+
+    @Override
+    public void onLoaderReset(Loader<List<ProductItem>> loader) {
+        int index = loader.getId() - mFirstLoaderId;
+        if (index < mPages.size()) {
+            mPages.get(index).items = null;
+            deliverPages();
+        }
+    }
+
+    /**
+     * Hand the loaded pages to the callback. Only the pages up to the first one still loading
+     * are included, so the list never has a gap.
+     */
+    private void deliverPages() {
+        if (mPages.get(0).items == null) {
+            mCallback.onPagesChanged(null);
+            return;
+        }
+
+        List<ProductItem> items = new ArrayList<>();
+        for (Page page : mPages) {
+            if (page.items == null) {
+                break;
+            }
+            items.addAll(page.items);
+        }
+        mCallback.onPagesChanged(Collections.unmodifiableList(items));
+    }
+}
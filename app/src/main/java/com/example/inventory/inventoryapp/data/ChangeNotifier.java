@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import com.example.inventory.inventoryapp.data.InventoryContract.LowStockEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.OrderEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges the change notifications of the provider into one notification per time window.
+ *
+ * The first change of a burst opens a window; every change until it closes is merged. When
+ * the window closes a single notification goes out: the product URI if only one product
+ * changed, otherwise the products URI. Notifying the products URI also reaches the observers
+ * of every product URI, so each observer wakes up once per window however long the burst.
+ * Changes of the low stock products and of the purchase orders are merged the same way and
+ * notified on their own URIs.
+ */
+class ChangeNotifier {
+
+    /** Length of the notification window by default */
+    static final long DEFAULT_WINDOW_MILLIS = 100;
+
+    private final ContentResolver mContentResolver;
+    private final long mWindowMillis;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Products that changed in the current window */
+    private final Set<Long> mChangedIds = new LinkedHashSet<>();
+
+    /** True if products were added or removed, or changed without a known id, in the window */
+    private boolean mCatalogChanged;
+
+    /** True if products were flagged or cleared as low on stock in the window */
+    private boolean mLowStockChanged;
+
+    /** True if purchase orders were generated or closed in the window */
+    private boolean mOrdersChanged;
+
+    /** True while a flush is scheduled */
+    private boolean mScheduled;
+
+    /** Changes recorded and notifications sent, for the metrics of the provider */
+    private final AtomicLong mRequestedCount = new AtomicLong();
+    private final AtomicLong mSentCount = new AtomicLong();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Constructs a new {@link ChangeNotifier}.
+     *
+     * @param contentResolver used to send the notifications
+     * @param windowMillis    how long changes are merged before they are notified
+     */
+    ChangeNotifier(ContentResolver contentResolver, long windowMillis) {
+        mContentResolver = contentResolver;
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Record that the data at the given URI changed. A product URI records a change of that
+     * product, an orders URI a change of the orders, any other URI a change of the catalog.
+     */
+    void notifyChange(Uri uri) {
+        long id = parseProductId(uri);
+        List<String> segments = uri.getPathSegments();
+        boolean orders = !segments.isEmpty()
+                && InventoryContract.PATH_ORDERS.equals(segments.get(0));
+        mRequestedCount.incrementAndGet();
+        synchronized (this) {
+            if (orders) {
+                mOrdersChanged = true;
+            } else if (id != -1) {
+                mChangedIds.add(id);
+            } else {
+                mCatalogChanged = true;
+            }
+            scheduleFlushLocked();
+        }
+    }
+
+    /**
+     * Record that products were flagged or cleared as low on stock.
+     */
+    void notifyLowStockChange() {
+        mRequestedCount.incrementAndGet();
+        synchronized (this) {
+            mLowStockChanged = true;
+            scheduleFlushLocked();
+        }
+    }
+
+    /**
+     * Open a window if none is open. Must be called holding the lock.
+     */
+    private void scheduleFlushLocked() {
+        if (!mScheduled) {
+            mScheduled = true;
+            mHandler.postAtTime(mFlush, SystemClock.uptimeMillis() + mWindowMillis);
+        }
+    }
+
+    /**
+     * Send the notification for the changes recorded so far, without waiting for the window to
+     * close.
+     */
+    void flush() {
+        Uri uri = null;
+        boolean lowStockChanged;
+        boolean ordersChanged;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlush);
+            mScheduled = false;
+            if (mCatalogChanged || mChangedIds.size() > 1) {
+                uri = ProductEntry.CONTENT_URI;
+            } else if (mChangedIds.size() == 1) {
+                uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI,
+                        mChangedIds.iterator().next());
+            }
+            lowStockChanged = mLowStockChanged;
+            ordersChanged = mOrdersChanged;
+            mChangedIds.clear();
+            mCatalogChanged = false;
+            mLowStockChanged = false;
+            mOrdersChanged = false;
+        }
+        if (uri != null) {
+            mContentResolver.notifyChange(uri, null);
+            mSentCount.incrementAndGet();
+        }
+        if (lowStockChanged) {
+            mContentResolver.notifyChange(LowStockEntry.NOTIFICATION_URI, null);
+            mSentCount.incrementAndGet();
+        }
+        if (ordersChanged) {
+            // Also reaches the observers of every order and of its items
+            mContentResolver.notifyChange(OrderEntry.CONTENT_URI, null);
+            mSentCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Return the number of changes recorded since the counts were reset.
+     */
+    long getRequestedCount() {
+        return mRequestedCount.get();
+    }
+
+    /**
+     * Return the number of notifications sent since the counts were reset.
+     */
+    long getSentCount() {
+        return mSentCount.get();
+    }
+
+    void resetCounts() {
+        mRequestedCount.set(0);
+        mSentCount.set(0);
+    }
+
+    /**
+     * Return the id of a "products/#" URI, or -1 for any other URI.
+     */
+    private static long parseProductId(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !InventoryContract.PATH_PRODUCTS.equals(segments.get(0))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(segments.get(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
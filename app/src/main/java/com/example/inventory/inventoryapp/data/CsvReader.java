@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Reads RFC 4180 CSV records one at a time from a stream.
+ *
+ * Fields may be quoted, and quoted fields may hold commas, line breaks and doubled quotes.
+ * Records end with CRLF, LF or CR. The input goes through a fixed buffer and the fields are
+ * capped in length and number, so reading any file takes the same memory; a record that goes
+ * over the caps is cut short and reported by {@link #isTruncated()}.
+ */
+class CsvReader {
+
+    /** Longest field kept, in characters */
+    static final int MAX_FIELD_LENGTH = 4096;
+
+    /** Most fields kept per record */
+    static final int MAX_FIELDS = 64;
+
+    private static final int END_OF_INPUT = -1;
+
+    private final Reader mReader;
+    private final char[] mBuffer = new char[8192];
+    private int mPosition;
+    private int mLimit;
+
+    /** Character read ahead, or -2 if none */
+    private int mPeeked = -2;
+
+    private final StringBuilder mField = new StringBuilder();
+    private boolean mTruncated;
+
+    /** Line the next record starts on, and the line the last record started on */
+    private long mLine = 1;
+    private long mRecordLine;
+
+    CsvReader(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Read the next record into the given list, which is cleared first. Return false at the end
+     * of the input.
+     */
+    boolean readRecord(List<String> fields) throws IOException {
+        fields.clear();
+        mTruncated = false;
+        mRecordLine = mLine;
+
+        int c = read();
+        if (c == END_OF_INPUT) {
+            return false;
+        }
+        // A byte order mark is not part of the first field
+        if (c == '\uFEFF' && mRecordLine == 1) {
+            c = read();
+            if (c == END_OF_INPUT) {
+                return false;
+            }
+        }
+
+        while (true) {
+            mField.setLength(0);
+            if (c == '"') {
+                c = readQuotedField();
+            } else {
+                c = readPlainField(c);
+            }
+            addField(fields);
+
+            if (c == ',') {
+                c = read();
+                continue;
+            }
+            // End of the record: CRLF, LF, CR or the end of the input
+            if (c == '\r') {
+                if (peek() == '\n') {
+                    read();
+                }
+                mLine++;
+            } else if (c == '\n') {
+                mLine++;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Return the line the last record read started on, counting from 1.
+     */
+    long getRecordLine() {
+        return mRecordLine;
+    }
+
+    /**
+     * Return true if the last record read had a field or fields over the caps, which were cut.
+     */
+    boolean isTruncated() {
+        return mTruncated;
+    }
+
+    /**
+     * Read the rest of a field that doesn't start with a quote. Return the character that ended
+     * it.
+     */
+    private int readPlainField(int c) throws IOException {
+        while (c != ',' && c != '\r' && c != '\n' && c != END_OF_INPUT) {
+            append(c);
+            c = read();
+        }
+        return c;
+    }
+
+    /**
+     * Read a quoted field, its opening quote already read. Return the character that ended it.
+     */
+    private int readQuotedField() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == END_OF_INPUT) {
+                // Unterminated quote, keep what was read
+                return c;
+            }
+            if (c == '"') {
+                if (peek() == '"') {
+                    // Doubled quote
+                    read();
+                    append('"');
+                    continue;
+                }
+                // Closing quote. Anything up to the next separator is kept as is.
+                return readPlainField(read());
+            }
+            if (c == '\n' || (c == '\r' && peek() != '\n')) {
+                mLine++;
+            }
+            append(c);
+        }
+    }
+
+    private void append(int c) {
+        if (mField.length() < MAX_FIELD_LENGTH) {
+            mField.append((char) c);
+        } else {
+            mTruncated = true;
+        }
+    }
+
+    private void addField(List<String> fields) {
+        if (fields.size() < MAX_FIELDS) {
+            fields.add(mField.toString());
+        } else {
+            mTruncated = true;
+        }
+    }
+
+    private int peek() throws IOException {
+        if (mPeeked == -2) {
+            mPeeked = readFromBuffer();
+        }
+        return mPeeked;
+    }
+
+    private int read() throws IOException {
+        if (mPeeked != -2) {
+            int c = mPeeked;
+            mPeeked = -2;
+            return c;
+        }
+        return readFromBuffer();
+    }
+
+    private int readFromBuffer() throws IOException {
+        if (mPosition == mLimit) {
+            mLimit = mReader.read(mBuffer, 0, mBuffer.length);
+            mPosition = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return END_OF_INPUT;
+            }
+        }
+        return mBuffer[mPosition++];
+    }
+}
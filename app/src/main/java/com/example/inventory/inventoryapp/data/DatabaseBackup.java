@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp.data;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import com.example.inventory.inventoryapp.data.InventoryContract.Backup;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes backups of the database and restores them, for the backup and restore calls of the
+ * provider.
+ *
+ * A backup file starts with a header: the 8 bytes "INVBAK01", the size of the database as a
+ * big-endian long and the SHA-256 of the database. The database follows, compressed with
+ * gzip. The file is written under another name and renamed once complete and synced, so a
+ * backup file is never half written. A restore checks the header, the size and the checksum
+ * before the database is replaced.
+ *
+ * The files go through buffers of {@link #CHUNK_SIZE}, so the memory used is the same for any
+ * size of database.
+ */
+class DatabaseBackup {
+
+    private static final String LOG_TAG = DatabaseBackup.class.getSimpleName();
+
+    /** First bytes of a backup file, ending with the version of the format */
+    private static final byte[] MAGIC = { 'I', 'N', 'V', 'B', 'A', 'K', '0', '1' };
+
+    /** Size of the SHA-256 of the database */
+    private static final int DIGEST_SIZE = 32;
+
+    /** Size of the header: the magic, the size of the database and its checksum */
+    private static final int HEADER_SIZE = MAGIC.length + 8 + DIGEST_SIZE;
+
+    /** Bytes read or written at a time */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /** Names of the work files, in the folder of the database */
+    private static final String SNAPSHOT_NAME = "inventory.db.snapshot";
+    private static final String RESTORE_NAME = "inventory.db.restore";
+
+    private final InventoryDbHelper mDbHelper;
+
+    /** Folder of the database, so a restored database is moved in place by a rename */
+    private final File mWorkDirectory;
+
+    DatabaseBackup(InventoryDbHelper dbHelper, File workDirectory) {
+        mDbHelper = dbHelper;
+        mWorkDirectory = workDirectory;
+    }
+
+    /**
+     * Write a backup of the database to the given file, replacing it. Return the figures of
+     * {@link Backup}.
+     */
+    Bundle backup(File destination) throws IOException {
+        long start = SystemClock.uptimeMillis();
+        File snapshot = new File(mWorkDirectory, SNAPSHOT_NAME);
+        File partial = new File(destination.getPath() + ".partial");
+        try {
+            long stallMillis = mDbHelper.snapshotTo(snapshot);
+            long databaseBytes = snapshot.length();
+            write(snapshot, partial);
+            if (!partial.renameTo(destination)) {
+                throw new IOException("Can't move " + partial + " to " + destination);
+            }
+            return report("Backup", databaseBytes, destination.length(),
+                    SystemClock.uptimeMillis() - start, stallMillis);
+        } finally {
+            snapshot.delete();
+            partial.delete();
+        }
+    }
+
+    /**
+     * Replace the database with the one in the given backup file. The database is left alone
+     * if the backup is damaged. Return the figures of {@link Backup}.
+     */
+    Bundle restore(File source) throws IOException {
+        long start = SystemClock.uptimeMillis();
+        File restored = new File(mWorkDirectory, RESTORE_NAME);
+        try {
+            long databaseBytes = read(source, restored);
+            mDbHelper.replaceWith(restored);
+            return report("Restore", databaseBytes, source.length(),
+                    SystemClock.uptimeMillis() - start, 0);
+        } finally {
+            restored.delete();
+        }
+    }
+
+    /**
+     * Compress a database file into a backup file.
+     */
+    private static void write(File database, File backup) throws IOException {
+        MessageDigest digest = newDigest();
+        long size = 0;
+
+        FileOutputStream fileOut = new FileOutputStream(backup);
+        GZIPOutputStream out = null;
+        try {
+            // Room for the header, written once the size and the checksum are known
+            fileOut.write(new byte[HEADER_SIZE]);
+            out = new GZIPOutputStream(fileOut, CHUNK_SIZE);
+
+            InputStream in = new FileInputStream(database);
+            try {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+            } finally {
+                in.close();
+            }
+            out.finish();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MAGIC).putLong(size).put(digest.digest());
+            header.flip();
+            fileOut.getChannel().write(header, 0);
+            fileOut.getFD().sync();
+        } finally {
+            if (out != null) {
+                out.close();
+            } else {
+                fileOut.close();
+            }
+        }
+    }
+
+    /**
+     * Decompress a backup file into a database file, checking it on the way. Return the size
+     * of the database.
+     */
+    private static long read(File backup, File database) throws IOException {
+        MessageDigest digest = newDigest();
+        long size = 0;
+
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(backup), CHUNK_SIZE));
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(backup + " is not an inventory backup");
+            }
+            long expectedSize = in.readLong();
+            byte[] expectedDigest = new byte[DIGEST_SIZE];
+            in.readFully(expectedDigest);
+
+            InputStream gzipIn = new GZIPInputStream(in, CHUNK_SIZE);
+            FileOutputStream out = new FileOutputStream(database);
+            try {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                int read;
+                while ((read = gzipIn.read(buffer)) != -1) {
+                    size += read;
+                    // Don't fill the storage with a damaged file
+                    if (size > expectedSize) {
+                        throw new IOException(backup + " holds more than its "
+                                + expectedSize + " bytes");
+                    }
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            if (size != expectedSize) {
+                throw new IOException(backup + " holds " + size + " bytes instead of "
+                        + expectedSize);
+            }
+            if (!MessageDigest.isEqual(digest.digest(), expectedDigest)) {
+                throw new IOException(backup + " doesn't match its checksum");
+            }
+        } finally {
+            in.close();
+        }
+        return size;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android version has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Log the figures of a backup or a restore and return them as a bundle.
+     */
+    private static Bundle report(String operation, long databaseBytes, long backupBytes,
+                                 long durationMillis, long stallMillis) {
+        Log.i(LOG_TAG, operation + " of " + databaseBytes + " bytes (" + backupBytes
+                + " compressed) took " + durationMillis + " ms, "
+                + databaseBytes / Math.max(1, durationMillis) + " bytes/ms; writers waited "
+                + stallMillis + " ms");
+
+        Bundle result = new Bundle();
+        result.putLong(Backup.EXTRA_DATABASE_BYTES, databaseBytes);
+        result.putLong(Backup.EXTRA_BACKUP_BYTES, backupBytes);
+        result.putLong(Backup.EXTRA_DURATION_MILLIS, durationMillis);
+        result.putLong(Backup.EXTRA_WRITE_STALL_MILLIS, stallMillis);
+        return result;
+    }
+}
@@ -7,8 +7,8 @@ import java.io.ByteArrayOutputStream;
 
 public class DbBitmapUtility {
 
-    // convert from bitmap to byte array
-    // To insert the data to DB
+    // convert from bitmap to lossless PNG byte array
+    // Only used for small pictures, the others go through ProductImageEncoder
     public static byte[] getBytes(Bitmap bitmap) {
         ByteArrayOutputStream stream = new ByteArrayOutputStream();
         bitmap.compress(Bitmap.CompressFormat.PNG, 0, stream);
@@ -20,4 +20,36 @@ public class DbBitmapUtility {
     public static Bitmap getImage(byte[] image) {
         return BitmapFactory.decodeByteArray(image, 0, image.length);
     }
+
+    // convert from byte array to a bitmap whose largest side is at most maxSize pixels
+    // To show a stored picture no bigger than its view, without decoding all its pixels
+    public static Bitmap getImage(byte[] image, int maxSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(image, 0, image.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = ProductImageDecoder.sampleSizeFor(
+                Math.max(options.outWidth, options.outHeight), maxSize);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(image, 0, image.length, options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        // The sample size only halves, scale the rest of the way down
+        int largestSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (largestSide <= maxSize) {
+            return bitmap;
+        }
+        float scale = (float) maxSize / largestSide;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
 }
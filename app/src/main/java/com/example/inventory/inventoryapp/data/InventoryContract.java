@@ -16,6 +16,7 @@
 package com.example.inventory.inventoryapp.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -47,6 +48,63 @@ public final class InventoryContract {
      */
     public static final String PATH_PRODUCTS = "products";
 
+    /**
+     * Path appended to a single product URI to adjust its quantity
+     */
+    public static final String PATH_ADJUST = "adjust";
+
+    /**
+     * Path appended to the products URI to search the products
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the products URI to insert or update products in bulk
+     */
+    public static final String PATH_UPSERT = "upsert";
+
+    /**
+     * Path appended to a single product URI to read its stock movements
+     */
+    public static final String PATH_MOVEMENTS = "movements";
+
+    /**
+     * Path appended to the products URI to export the products as a file
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Possible path for the product pictures
+     */
+    public static final String PATH_PICTURES = "pictures";
+
+    /**
+     * Path appended to the products URI to list the low stock products, and possible path
+     * notified when that list changes
+     */
+    public static final String PATH_LOW_STOCK = "low_stock";
+
+    /**
+     * Possible path for the purchase orders
+     */
+    public static final String PATH_ORDERS = "orders";
+
+    /**
+     * Path appended to a single order URI to read its items
+     */
+    public static final String PATH_ITEMS = "items";
+
+    /**
+     * Path appended to the products URI to read the inventory summary
+     */
+    public static final String PATH_SUMMARY = "summary";
+
+    /**
+     * Possible path (appended to base content URI) for the suppliers, also appended to the
+     * summary URI to read the summary per supplier
+     */
+    public static final String PATH_SUPPLIERS = "suppliers";
+
     /**
      * Inner class that defines constant values for the products database table.
      * Each entry in the table represents a single product.
@@ -68,9 +126,142 @@ public final class InventoryContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PRODUCTS;
 
+        /**
+         * Query parameter of an adjust URI holding the signed change of the quantity.
+         */
+        public static final String QUERY_PARAMETER_DELTA = "delta";
+
+        /**
+         * Query parameter of an adjust URI holding the reason of the change, one of the
+         * REASON constants of {@link StockMovementEntry}.
+         */
+        public static final String QUERY_PARAMETER_REASON = "reason";
+
+        /**
+         * Query parameter of a product URI holding the {@link #COLUMN_PRODUCT_VERSION} the
+         * update was made from. The update is only applied if the product still has this
+         * version, otherwise no row is updated.
+         */
+        public static final String QUERY_PARAMETER_EXPECTED_VERSION = "expected_version";
+
+        /**
+         * The content URI to search the products by name, supplier and supplier email. The text
+         * to search for is given by the {@link #QUERY_PARAMETER_SEARCH} query parameter.
+         */
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * The content URI to bulk insert products that replace the existing products with the
+         * same name (ignoring case) and supplier. A replaced product keeps its id and picture,
+         * and the change of its quantity is recorded as a correction.
+         */
+        public static final Uri UPSERT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_UPSERT);
+
+        /**
+         * The content URI to export all the products, in id order. It is opened as a file
+         * (with {@link ContentResolver#openInputStream}) in the format given by the
+         * {@link #QUERY_PARAMETER_FORMAT} query parameter: {@link #FORMAT_CSV} (the default,
+         * with a header row) or {@link #FORMAT_JSON} (an array of objects). The fields are the
+         * columns of the products, without the pictures.
+         */
+        public static final Uri EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /**
+         * The content URI to list the products at or below their
+         * {@link #COLUMN_PRODUCT_REORDER_THRESHOLD}, the emptiest first. It reads the
+         * {@link LowStockEntry} table, so it costs the same however big the catalog is. Any
+         * product column can be asked for, and the columns of {@link LowStockEntry}.
+         *
+         * Its cursors are notified through {@link LowStockEntry#NOTIFICATION_URI}: only when a
+         * product is flagged or cleared, not when a flagged product changes otherwise.
+         */
+        public static final Uri LOW_STOCK_URI = Uri.withAppendedPath(CONTENT_URI, PATH_LOW_STOCK);
+
+        /**
+         * The content URI to read the inventory summary: one row with the columns of
+         * {@link SummaryEntry}. It reads a table kept up to date by triggers, so it costs the
+         * same however big the catalog is. Its cursors are notified with the products.
+         */
+        public static final Uri SUMMARY_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SUMMARY);
+
+        /**
+         * The content URI to read the inventory summary per supplier, one row per supplier in
+         * name order, with {@link SummaryEntry#COLUMN_SUPPLIER}. Its cursors are notified with
+         * the products.
+         */
+        public static final Uri SUPPLIER_SUMMARY_URI =
+                Uri.withAppendedPath(SUMMARY_URI, PATH_SUPPLIERS);
+
+        /** Query parameter of the {@link #EXPORT_URI} holding the format of the file */
+        public static final String QUERY_PARAMETER_FORMAT = "format";
+
+        /** Formats of the {@link #EXPORT_URI} */
+        public static final String FORMAT_CSV = "csv";
+        public static final String FORMAT_JSON = "json";
+
+        /** MIME types of the {@link #EXPORT_URI} in each format */
+        public static final String CSV_TYPE = "text/csv";
+        public static final String JSON_TYPE = "application/json";
+
+        /**
+         * Query parameter of the {@link #EXPORT_URI}. If "true", every product gets a
+         * {@link #COLUMN_EXPORT_PICTURE_FILE} field.
+         */
+        public static final String QUERY_PARAMETER_PICTURES = "pictures";
+
+        /**
+         * Field of an export naming the file the picture of the product is exported as (its
+         * {@link #COLUMN_PRODUCT_IMAGE_KEY} and an extension), empty if it has no picture. The
+         * pictures themselves are read from {@link PictureEntry#CONTENT_URI}.
+         */
+        public static final String COLUMN_EXPORT_PICTURE_FILE = "picture_file";
+
+        /**
+         * Query parameter of the {@link #SEARCH_URI} holding the text typed by the user. Every
+         * word is matched as a prefix, and products whose name matches all the words come first.
+         */
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        /**
+         * Query parameter of the {@link #CONTENT_URI} limiting the number of products returned.
+         *
+         * When any of the page parameters is present, products are returned in keyset order:
+         * by {@link #COLUMN_PRODUCT_NAME} (ignoring case) then by {@link #_ID}, and the given
+         * sort order is ignored.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameters of the {@link #CONTENT_URI} holding the name and id of the last
+         * product of the previous page. Only products after it in keyset order are returned.
+         */
+        public static final String QUERY_PARAMETER_AFTER_NAME = "after_name";
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Query parameters of the {@link #CONTENT_URI} holding the name and id of the last
+         * product of this page. Only products up to and including it in keyset order are
+         * returned, so a page keeps the same range when it is queried again.
+         */
+        public static final String QUERY_PARAMETER_UNTIL_NAME = "until_name";
+        public static final String QUERY_PARAMETER_UNTIL_ID = "until_id";
+
         /** Name of database table for products */
         public final static String TABLE_NAME = "products";
 
+        /**
+         * Name of the view joining every product to its supplier, with the supplier name and
+         * email as {@link #COLUMN_PRODUCT_SUPPLIER} and {@link #COLUMN_PRODUCT_SUPPLIER_EMAIL}.
+         * The products URIs are read from it.
+         */
+        public final static String VIEW_NAME = "product_details";
+
+        /**
+         * Name of the full-text search table that mirrors the name, supplier and supplier email
+         * of every product. Its docid is the product {@link #_ID}.
+         */
+        public final static String SEARCH_TABLE_NAME = "products_fts";
+
         /**
          * Unique ID number for the product (only for use in the database table).
          *
@@ -100,29 +291,711 @@ public final class InventoryContract {
         public final static String COLUMN_PRODUCT_QUANTITY = "quantity";
 
         /**
-         * supplier of the product.
+         * {@link SupplierEntry#_ID} of the supplier of the product.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_SUPPLIER_ID = "supplier_id";
+
+        /**
+         * supplier of the product, the {@link SupplierEntry#COLUMN_SUPPLIER_NAME} of its
+         * supplier. On insert and update the provider finds the supplier with this name and
+         * the {@link #COLUMN_PRODUCT_SUPPLIER_EMAIL}, adding it if there is none, and stores
+         * its {@link #COLUMN_PRODUCT_SUPPLIER_ID}.
          *
          * Type: TEXT
          */
         public final static String COLUMN_PRODUCT_SUPPLIER = "supplier";
 
         /**
-         * supplier_email of the product.
+         * supplier_email of the product, the {@link SupplierEntry#COLUMN_SUPPLIER_EMAIL} of its
+         * supplier.
          *
          * Type: TEXT
          */
         public final static String COLUMN_PRODUCT_SUPPLIER_EMAIL = "supplier_email";
 
         /**
-         * picture of the product.
+         * Encoded picture of the product.
+         *
+         * This is not a column of the table. It is only accepted on insert and update: the
+         * provider moves the bytes into the {@link ProductImageStore} and stores the resulting
+         * {@link #COLUMN_PRODUCT_IMAGE_KEY} and {@link #COLUMN_PRODUCT_THUMBNAIL} instead.
          *
          * Type: BLOB
          */
         public final static String COLUMN_PRODUCT_PICTURE = "picture";
 
+        /**
+         * Key of the product picture in the {@link ProductImageStore}, or null if the product
+         * has no picture.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_PRODUCT_IMAGE_KEY = "image_key";
+
+        /**
+         * Small JPEG thumbnail of the product picture.
+         *
+         * Type: BLOB
+         */
+        public final static String COLUMN_PRODUCT_THUMBNAIL = "thumbnail";
+
+        /**
+         * Quantity at or below which the product is low on stock and listed by
+         * {@link #LOW_STOCK_URI}. {@link #DEFAULT_REORDER_THRESHOLD} if not given.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_REORDER_THRESHOLD = "reorder_threshold";
+
+        /** {@link #COLUMN_PRODUCT_REORDER_THRESHOLD} of the products that don't give one */
+        public static final int DEFAULT_REORDER_THRESHOLD = 5;
+
+        /**
+         * Quantity a purchase order brings the product back up to once it's low on stock.
+         * {@link #DEFAULT_TARGET_QUANTITY} if not given.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_TARGET_QUANTITY = "target_quantity";
+
+        /** {@link #COLUMN_PRODUCT_TARGET_QUANTITY} of the products that don't give one */
+        public static final int DEFAULT_TARGET_QUANTITY = 10;
+
+        /**
+         * Version of the product, incremented by the provider on every update of the product.
+         * It can't be written, and stock movements don't change it.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_VERSION = "version";
+
+        /**
+         * Build the URI that searches the products for the given text.
+         */
+        public static Uri buildSearchUri(String query) {
+            return SEARCH_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SEARCH, query)
+                    .build();
+        }
+
+        /**
+         * Build the URI that atomically adds delta to the quantity of a product, for example
+         * "content://com.example.inventory.inventoryapp/products/2/adjust?delta=-1&reason=sale".
+         *
+         * Updating this URI records a stock movement and returns the new quantity, or -1 if the
+         * product doesn't exist or the quantity would become negative. The values may instead
+         * give the change as {@link StockMovementEntry#COLUMN_DELTA} and
+         * {@link StockMovementEntry#COLUMN_REASON}.
+         */
+        public static Uri buildAdjustUri(long id, int delta, String reason) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_ADJUST)
+                    .appendQueryParameter(QUERY_PARAMETER_DELTA, String.valueOf(delta))
+                    .appendQueryParameter(QUERY_PARAMETER_REASON, reason)
+                    .build();
+        }
 
+        /**
+         * Build the URI that exports all the products in the given format.
+         */
+        public static Uri buildExportUri(String format, boolean pictures) {
+            return EXPORT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_FORMAT, format)
+                    .appendQueryParameter(QUERY_PARAMETER_PICTURES, String.valueOf(pictures))
+                    .build();
+        }
 
+        /**
+         * Build the URI that updates a product only if it still has the given version.
+         */
+        public static Uri buildVersionedUri(long id, int version) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_EXPECTED_VERSION, String.valueOf(version))
+                    .build();
+        }
     }
 
-}
+    /**
+     * Inner class that defines constant values for the product pictures. Pictures are not a
+     * table: they are the files of the {@link ProductImageStore}, named by the
+     * {@link ProductEntry#COLUMN_PRODUCT_IMAGE_KEY} of the products using them.
+     */
+    public static final class PictureEntry {
 
+        /**
+         * The content URI to list the pictures in use, in key order, and the base of the URI
+         * of each picture. A single picture URI is opened as a read-only file, and its type
+         * is the type of the image.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PICTURES);
+
+        /**
+         * Query parameter of the {@link #CONTENT_URI} holding the last key of the previous
+         * page. Only keys after it are listed, as many as {@link ProductEntry#QUERY_PARAMETER_LIMIT}
+         * if given.
+         */
+        public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of pictures.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PICTURES;
+
+        /**
+         * Key of the picture, the only column of the list.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_KEY = ProductEntry.COLUMN_PRODUCT_IMAGE_KEY;
+
+        /**
+         * Build the URI of the picture with the given key.
+         */
+        public static Uri buildPictureUri(String key) {
+            return Uri.withAppendedPath(CONTENT_URI, key);
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the low stock database table. It holds one
+     * row per product at or below its {@link ProductEntry#COLUMN_PRODUCT_REORDER_THRESHOLD},
+     * added and removed by triggers as quantities and thresholds change. It is read through
+     * {@link ProductEntry#LOW_STOCK_URI}.
+     */
+    public static final class LowStockEntry {
+
+        /**
+         * The URI notified when a product is flagged or cleared. Observers of the low stock
+         * products register on it: it is not under the products URI, so the changes of the
+         * products don't reach it.
+         */
+        public static final Uri NOTIFICATION_URI =
+                Uri.withAppendedPath(BASE_CONTENT_URI, PATH_LOW_STOCK);
+
+        /** Name of database table for the low stock products */
+        public final static String TABLE_NAME = "low_stock";
+
+        /**
+         * {@link ProductEntry#_ID} of the low stock product.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Time the product went low on stock, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_FLAGGED_AT = "flagged_at";
+    }
+
+    /**
+     * Inner class that defines constant values for the inventory summary tables: the totals of
+     * all the products, and the same totals per supplier. Triggers on the products add the
+     * change of every write to them, so they are never recomputed.
+     *
+     * The {@link #METHOD_VERIFY} call recomputes the totals from the products and compares
+     * them with the summary, and can repair it.
+     */
+    public static final class SummaryEntry {
+
+        /**
+         * The MIME type of the {@link ProductEntry#SUMMARY_URI}.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+
+        /**
+         * The MIME type of the {@link ProductEntry#SUPPLIER_SUMMARY_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY + "." + PATH_SUPPLIERS;
+
+        /**
+         * Method of {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+         * {@link ProductEntry#SUMMARY_URI} checking the summary against the products. With
+         * {@link #ARG_REPAIR} as the arg, a summary that doesn't match is rebuilt. It returns a
+         * bundle with {@link #EXTRA_MISMATCHES} and {@link #EXTRA_REPAIRED}. It reads every
+         * product, so it must not be called from the main thread.
+         */
+        public static final String METHOD_VERIFY = "verify_summary";
+
+        /** Arg of {@link #METHOD_VERIFY} to rebuild a summary that doesn't match */
+        public static final String ARG_REPAIR = "repair";
+
+        /** Number of summary rows that didn't match the products, 0 if consistent (int) */
+        public static final String EXTRA_MISMATCHES = "mismatches";
+
+        /** True if the summary was rebuilt (boolean) */
+        public static final String EXTRA_REPAIRED = "repaired";
+
+        /** Name of database table for the totals of all the products, it has one row */
+        public final static String TABLE_NAME = "inventory_summary";
+
+        /** Name of database table for the totals per supplier */
+        public final static String SUPPLIERS_TABLE_NAME = "supplier_summary";
+
+        /**
+         * {@link SupplierEntry#_ID} of the supplier, in the summary per supplier only.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SUPPLIER_ID = "supplier_id";
+
+        /**
+         * Supplier of the products, in the summary per supplier only.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER = "supplier";
+
+        /**
+         * Number of products.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_COUNT = "product_count";
+
+        /**
+         * Number of units in stock, all products together.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_QUANTITY = "total_quantity";
+
+        /**
+         * Value of the stock: the sum of price times quantity of the products.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_VALUE = "total_value";
+
+        /**
+         * Number of suppliers, in the totals only.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SUPPLIER_COUNT = "supplier_count";
+    }
+
+    /**
+     * Inner class that defines constant values for the suppliers database table. Each entry
+     * is one supplier, a distinct name and email, referenced by the
+     * {@link ProductEntry#COLUMN_PRODUCT_SUPPLIER_ID} of its products.
+     *
+     * Suppliers are added when a product names a new one. Renaming a supplier is an update of
+     * its single row, which all its products then show. A supplier can only be deleted once
+     * it has no products.
+     */
+    public static final class SupplierEntry implements BaseColumns {
+
+        /** The content URI to access the suppliers in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single supplier.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /** Name of database table for suppliers */
+        public final static String TABLE_NAME = "suppliers";
+
+        /**
+         * Unique ID number for the supplier (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Name of the supplier.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_NAME = "name";
+
+        /**
+         * Email of the supplier, may be null.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_EMAIL = "email";
+
+        /**
+         * Build the URI of the products of a supplier, in name order, for example
+         * "content://com.example.inventory.inventoryapp/suppliers/2/products".
+         */
+        public static Uri buildProductsUri(long supplierId) {
+            return ContentUris.withAppendedId(CONTENT_URI, supplierId).buildUpon()
+                    .appendPath(PATH_PRODUCTS)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the purchase orders database table. Each
+     * entry is one order to one supplier, with its products in {@link OrderItemEntry}.
+     *
+     * Orders are generated all at once by the {@link #METHOD_GENERATE} call: every low stock
+     * product below its {@link ProductEntry#COLUMN_PRODUCT_TARGET_QUANTITY} and not already in
+     * an open order is ordered up to its target, one order per supplier and supplier email.
+     * An open order is received or cancelled by updating its {@link #COLUMN_STATUS}.
+     */
+    public static final class OrderEntry implements BaseColumns {
+
+        /** The content URI to access the orders, newest first */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_ORDERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of orders.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ORDERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single order.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ORDERS;
+
+        /**
+         * Method of {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+         * {@link #CONTENT_URI} generating the orders of all the low stock products in one
+         * transaction. It returns a bundle with {@link #EXTRA_ORDER_COUNT} and
+         * {@link #EXTRA_ITEM_COUNT}.
+         */
+        public static final String METHOD_GENERATE = "generate_orders";
+
+        /** Number of orders generated (int) */
+        public static final String EXTRA_ORDER_COUNT = "order_count";
+
+        /** Number of products ordered (int) */
+        public static final String EXTRA_ITEM_COUNT = "item_count";
+
+        /** Name of database table for purchase orders */
+        public final static String TABLE_NAME = "orders";
+
+        /** Statuses of an order */
+        public static final String STATUS_OPEN = "open";
+        public static final String STATUS_RECEIVED = "received";
+        public static final String STATUS_CANCELLED = "cancelled";
+
+        /**
+         * Unique ID number for the order (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Supplier the order is sent to.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER = "supplier";
+
+        /**
+         * Email of the supplier, or null.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_EMAIL = "supplier_email";
+
+        /**
+         * {@link #STATUS_OPEN}, {@link #STATUS_RECEIVED} or {@link #STATUS_CANCELLED}. Only an
+         * open order can be updated, to one of the other two. Receiving an order records the
+         * stock of all its items in the same transaction.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_STATUS = "status";
+
+        /**
+         * Time the order was generated, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CREATED_AT = "created_at";
+
+        /**
+         * Time the order was received or cancelled, in milliseconds since the epoch, or null.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CLOSED_AT = "closed_at";
+
+        /**
+         * Number of products in the order. Computed, it can only be read.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ITEM_COUNT = "item_count";
+
+        /**
+         * Number of units ordered, all products together. Computed, it can only be read.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_QUANTITY = "total_quantity";
+
+        /**
+         * Build the URI of the items of an order, for example
+         * "content://com.example.inventory.inventoryapp/orders/2/items".
+         */
+        public static Uri buildItemsUri(long orderId) {
+            return ContentUris.withAppendedId(CONTENT_URI, orderId).buildUpon()
+                    .appendPath(PATH_ITEMS)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the purchase order items database table.
+     * Each entry is one product of an order, with its name and price as they were when the
+     * order was generated.
+     */
+    public static final class OrderItemEntry implements BaseColumns {
+
+        /**
+         * The MIME type of the items URI of an order.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_ORDERS + "." + PATH_ITEMS;
+
+        /** Name of database table for purchase order items */
+        public final static String TABLE_NAME = "order_items";
+
+        /**
+         * Unique ID number for the item (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * {@link OrderEntry#_ID} of the order.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ORDER_ID = "order_id";
+
+        /**
+         * {@link ProductEntry#_ID} of the product ordered.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Name of the product ordered.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_NAME = "name";
+
+        /**
+         * Number of units ordered.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * Price of one unit.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRICE = "price";
+    }
+
+    /**
+     * Inner class that defines constant values for the stock movements database table.
+     * Each entry in the table is one change of the quantity of a product.
+     *
+     * The table is append-only: recording a movement is the only way the quantity of a product
+     * changes, and the quantity in the products table is the sum of its movements. Movements
+     * are kept when their product is deleted.
+     */
+    public static final class StockMovementEntry implements BaseColumns {
+
+        /**
+         * The MIME type of the movements URI of a product.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_MOVEMENTS;
+
+        /**
+         * Query parameters of the movements URI bounding the time of the movements returned,
+         * in milliseconds since the epoch. From is inclusive, to is exclusive.
+         */
+        public static final String QUERY_PARAMETER_FROM = "from";
+        public static final String QUERY_PARAMETER_TO = "to";
+
+        /** Name of database table for stock movements */
+        public final static String TABLE_NAME = "stock_movements";
+
+        /** Stock of a new product (or of an existing product when the ledger was added) */
+        public static final String REASON_INITIAL = "initial";
+
+        /** Products sold */
+        public static final String REASON_SALE = "sale";
+
+        /** Products received from the supplier */
+        public static final String REASON_ORDER = "order";
+
+        /** Quantity set by hand in the editor */
+        public static final String REASON_CORRECTION = "correction";
+
+        /**
+         * Unique ID number for the movement (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * {@link ProductEntry#_ID} of the product whose quantity changed.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Signed change of the quantity.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DELTA = "delta";
+
+        /**
+         * Reason of the change, one of the REASON constants.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_REASON = "reason";
+
+        /**
+         * Time of the change, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CREATED_AT = "created_at";
+
+        /**
+         * Build the URI of the stock movements of a product, oldest first, for example
+         * "content://com.example.inventory.inventoryapp/products/2/movements".
+         */
+        public static Uri buildMovementsUri(long productId) {
+            return ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId).buildUpon()
+                    .appendPath(PATH_MOVEMENTS)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for backing up and restoring the database. Both
+     * are methods of {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+     * {@link #BASE_CONTENT_URI}, with the path of the backup file as the argument. They return
+     * a bundle with the figures below, and throw {@link IllegalStateException} if they fail.
+     */
+    public static final class Backup {
+
+        /** Method writing a compressed, checksummed copy of the database to the file */
+        public static final String METHOD_BACKUP = "backup";
+
+        /**
+         * Method replacing the database with the one in a backup file, once the backup is
+         * checked. Everything written since the backup is lost.
+         */
+        public static final String METHOD_RESTORE = "restore";
+
+        /** Size of the database copied, in bytes (long) */
+        public static final String EXTRA_DATABASE_BYTES = "database_bytes";
+
+        /** Size of the backup file, in bytes (long) */
+        public static final String EXTRA_BACKUP_BYTES = "backup_bytes";
+
+        /** Time the whole call took, in milliseconds (long) */
+        public static final String EXTRA_DURATION_MILLIS = "duration_millis";
+
+        /** Time writers were stopped to take the copy, in milliseconds (long) */
+        public static final String EXTRA_WRITE_STALL_MILLIS = "write_stall_millis";
+    }
+
+    /**
+     * Inner class that defines constant values for the metrics of the provider, returned by
+     * the {@link #METHOD_METRICS} method of
+     * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+     * {@link #BASE_CONTENT_URI}.
+     *
+     * The metrics have one row per operation and URI pattern that ran since they were reset,
+     * given as parallel arrays: {@link #EXTRA_OPERATIONS}, {@link #EXTRA_PATTERNS},
+     * {@link #EXTRA_COUNTS} and so on. The latency histogram of row i is the
+     * {@link #HISTOGRAM_BUCKETS} values of {@link #EXTRA_HISTOGRAMS} starting at
+     * i * {@link #HISTOGRAM_BUCKETS}: bucket 0 counts the calls under 1 microsecond, bucket b
+     * the calls from 2^(b-1) up to 2^b microseconds, and the last bucket every longer call.
+     */
+    public static final class Metrics {
+
+        /** Method returning the metrics, optionally changing them first as given by the arg */
+        public static final String METHOD_METRICS = "metrics";
+
+        /** Arg of {@link #METHOD_METRICS} to start the metrics over, after returning them */
+        public static final String ARG_RESET = "reset";
+
+        /** Args of {@link #METHOD_METRICS} to turn the recording on or off */
+        public static final String ARG_ENABLE = "enable";
+        public static final String ARG_DISABLE = "disable";
+
+        /** Number of buckets of each latency histogram */
+        public static final int HISTOGRAM_BUCKETS = 24;
+
+        /** True if the provider records the metrics (boolean) */
+        public static final String EXTRA_ENABLED = "enabled";
+
+        /** Time since the metrics were reset, in milliseconds (long) */
+        public static final String EXTRA_ELAPSED_MILLIS = "elapsed_millis";
+
+        /** Operation of each row: "query", "insert", "bulk_insert", ... (String[]) */
+        public static final String EXTRA_OPERATIONS = "operations";
+
+        /** URI pattern of each row, such as "products/#", or "other" (String[]) */
+        public static final String EXTRA_PATTERNS = "patterns";
+
+        /** Number of calls of each row (long[]) */
+        public static final String EXTRA_COUNTS = "counts";
+
+        /** Time of all the calls of each row, in microseconds (long[]) */
+        public static final String EXTRA_TOTAL_MICROS = "total_micros";
+
+        /** Longest call of each row, in microseconds (long[]) */
+        public static final String EXTRA_MAX_MICROS = "max_micros";
+
+        /** Rows returned by the queries, or written by the other operations, of each row (long[]) */
+        public static final String EXTRA_ROWS = "rows";
+
+        /** Latency histograms of the rows, one after the other (long[]) */
+        public static final String EXTRA_HISTOGRAMS = "histograms";
+
+        /** Number of queries whose rows didn't all fit in their first cursor window (long) */
+        public static final String EXTRA_LARGE_CURSORS = "large_cursors";
+
+        /** Number of changes handed to the change notifier (long) */
+        public static final String EXTRA_NOTIFICATIONS_REQUESTED = "notifications_requested";
+
+        /** Number of notifications the change notifier sent once merged (long) */
+        public static final String EXTRA_NOTIFICATIONS_SENT = "notifications_sent";
+    }
+
+}
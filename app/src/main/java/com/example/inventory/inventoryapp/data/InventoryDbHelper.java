@@ -15,10 +15,25 @@
  */
 package com.example.inventory.inventoryapp.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseErrorHandler;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
-import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Database helper for Inventory app. Manages database creation and version management.
@@ -31,17 +46,561 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "inventory.db";
 
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Database version. If you change the database schema, you must add a {@link Migration} to
+     * {@link #mMigrations}; the version is the one of the last migration.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 11;
+
+    /** Number of products whose legacy picture is moved out of the table per query */
+    private static final int PICTURE_MIGRATION_BATCH = 50;
+
+    /** Number of picture bytes read from a legacy BLOB per query */
+    private static final int PICTURE_MIGRATION_CHUNK = 256 * 1024;
+
+    /** Page cache of the writing connection, in KiB (negative values are KiB for SQLite) */
+    private static final int CACHE_SIZE_KIB = 4096;
+
+    /** Store that receives the pictures moved out of the products table */
+    private final ProductImageStore mImageStore;
+
+    /** Buffer used to copy the database files */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /** Database file, and its write-ahead log file */
+    private final File mDatabaseFile;
+    private final File mWalFile;
+
+    /** Held while a snapshot is taken, so only one is taken at a time */
+    private final Object mSnapshotLock = new Object();
+
+    /** True while a snapshot copies the database file, which must not be checkpointed then */
+    private boolean mSnapshotting;
+
+    /** Guards {@link #mSnapshotting}, held during explicit checkpoints */
+    private final Object mCheckpointLock = new Object();
+
+    /** When the write-ahead log is checkpointed */
+    private final CheckpointPolicy mCheckpointPolicy;
 
     /**
-     * Constructs a new instance of {@link InventoryDbHelper}.
+     * When the write-ahead log is copied back into the database file.
+     *
+     * SQLite checkpoints on its own every {@link #autoCheckpointPages} committed pages, but it
+     * can't finish while readers still use old pages, so the log can keep growing during long
+     * bursts of writes. After such a burst the provider calls {@link #checkpointIfNeeded()},
+     * which checkpoints once the log is bigger than {@link #maxWalBytes}; SQLite then
+     * truncates the log back to {@link #journalSizeLimitBytes}.
+     */
+    public static class CheckpointPolicy {
+
+        /** 1000 pages (the SQLite default), 4 MiB before an explicit checkpoint, keep 1 MiB */
+        public static final CheckpointPolicy DEFAULT =
+                new CheckpointPolicy(1000, 4 * 1024 * 1024, 1024 * 1024);
+
+        /** Committed pages in the log that trigger an automatic checkpoint */
+        public final int autoCheckpointPages;
+
+        /** Size of the log above which {@link #checkpointIfNeeded()} checkpoints */
+        public final long maxWalBytes;
+
+        /** Size the log file is truncated to after a checkpoint */
+        public final long journalSizeLimitBytes;
+
+        public CheckpointPolicy(int autoCheckpointPages, long maxWalBytes,
+                                long journalSizeLimitBytes) {
+            this.autoCheckpointPages = autoCheckpointPages;
+            this.maxWalBytes = maxWalBytes;
+            this.journalSizeLimitBytes = journalSizeLimitBytes;
+        }
+    }
+
+    /**
+     * One step of the schema history, upgrading the database from the version before
+     * {@link #version} to {@link #version}. The SQL of a step must never change once released:
+     * later changes go in a new step, so every database goes through exactly the same steps.
+     */
+    private abstract static class Migration {
+
+        /** Version of the database after this step */
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        abstract void apply(SQLiteDatabase db);
+    }
+
+    // Triggers created by more than one step, each array as of the version it was added in.
+    // Like the steps, a released array never changes: other triggers get a new array.
+
+    /**
+     * Applies each stock movement to the quantity of its product, as of version 5.
+     */
+    private static final String[] STOCK_MOVEMENTS_TRIGGERS = {
+            "CREATE TRIGGER stock_movements_apply AFTER INSERT ON stock_movements BEGIN"
+                    + " UPDATE products SET quantity = quantity + NEW.delta"
+                    + " WHERE _id = NEW.product_id;"
+                    + " END" };
+
+    /**
+     * Keep the low stock table in step with the quantities and thresholds, as of version 7.
+     * They only run when a product crosses its threshold, so most stock movements don't touch
+     * the low stock tables.
+     */
+    private static final String[] LOW_STOCK_TRIGGERS = {
+            "CREATE TRIGGER low_stock_insert AFTER INSERT ON products"
+                    + " WHEN NEW.quantity <= NEW.reorder_threshold BEGIN"
+                    + " INSERT INTO low_stock (product_id, flagged_at)"
+                    + " VALUES (NEW._id, CAST(strftime('%s', 'now') AS INTEGER) * 1000);"
+                    + " UPDATE low_stock_state SET generation = generation + 1;"
+                    + " END",
+            "CREATE TRIGGER low_stock_flag"
+                    + " AFTER UPDATE OF quantity, reorder_threshold ON products"
+                    + " WHEN NEW.quantity <= NEW.reorder_threshold"
+                    + " AND OLD.quantity > OLD.reorder_threshold BEGIN"
+                    + " INSERT INTO low_stock (product_id, flagged_at)"
+                    + " VALUES (NEW._id, CAST(strftime('%s', 'now') AS INTEGER) * 1000);"
+                    + " UPDATE low_stock_state SET generation = generation + 1;"
+                    + " END",
+            "CREATE TRIGGER low_stock_clear"
+                    + " AFTER UPDATE OF quantity, reorder_threshold ON products"
+                    + " WHEN NEW.quantity > NEW.reorder_threshold"
+                    + " AND OLD.quantity <= OLD.reorder_threshold BEGIN"
+                    + " DELETE FROM low_stock WHERE product_id = OLD._id;"
+                    + " UPDATE low_stock_state SET generation = generation + 1;"
+                    + " END",
+            "CREATE TRIGGER low_stock_delete AFTER DELETE ON products"
+                    + " WHEN OLD.quantity <= OLD.reorder_threshold BEGIN"
+                    + " DELETE FROM low_stock WHERE product_id = OLD._id;"
+                    + " UPDATE low_stock_state SET generation = generation + 1;"
+                    + " END" };
+
+    /**
+     * Keep the search table in step with the products and the name and email of their
+     * supplier, as of version 10. Renaming a supplier updates the search rows of its products.
+     */
+    private static final String[] SEARCH_TRIGGERS = {
+            "CREATE TRIGGER products_fts_insert AFTER INSERT ON products BEGIN"
+                    + " INSERT INTO products_fts (docid, name, supplier, supplier_email)"
+                    + " SELECT NEW._id, NEW.name, name, email FROM suppliers"
+                    + " WHERE _id = NEW.supplier_id;"
+                    + " END",
+            "CREATE TRIGGER products_fts_update"
+                    + " AFTER UPDATE OF name, supplier_id ON products BEGIN"
+                    + " UPDATE products_fts SET name = NEW.name,"
+                    + " supplier = (SELECT name FROM suppliers WHERE _id = NEW.supplier_id),"
+                    + " supplier_email ="
+                    + " (SELECT email FROM suppliers WHERE _id = NEW.supplier_id)"
+                    + " WHERE docid = NEW._id;"
+                    + " END",
+            "CREATE TRIGGER products_fts_delete AFTER DELETE ON products BEGIN"
+                    + " DELETE FROM products_fts WHERE docid = OLD._id;"
+                    + " END",
+            "CREATE TRIGGER suppliers_fts_update"
+                    + " AFTER UPDATE OF name, email ON suppliers BEGIN"
+                    + " UPDATE products_fts SET supplier = NEW.name, supplier_email = NEW.email"
+                    + " WHERE docid IN (SELECT _id FROM products WHERE supplier_id = NEW._id);"
+                    + " END" };
+
+    /**
+     * Keep the inventory summary and the summary per supplier id in step with the products,
+     * as of version 10.
+     */
+    private static final String[] SUMMARY_TRIGGERS = {
+            "CREATE TRIGGER summary_insert AFTER INSERT ON products BEGIN"
+                    + " UPDATE inventory_summary SET product_count = product_count + 1,"
+                    + " total_quantity = total_quantity + NEW.quantity,"
+                    + " total_value = total_value + NEW.price * NEW.quantity;"
+                    + " INSERT OR IGNORE INTO supplier_summary"
+                    + " (supplier_id, product_count, total_quantity, total_value)"
+                    + " VALUES (NEW.supplier_id, 0, 0, 0);"
+                    + " UPDATE supplier_summary SET product_count = product_count + 1,"
+                    + " total_quantity = total_quantity + NEW.quantity,"
+                    + " total_value = total_value + NEW.price * NEW.quantity"
+                    + " WHERE supplier_id = NEW.supplier_id;"
+                    + " END",
+            "CREATE TRIGGER summary_update"
+                    + " AFTER UPDATE OF price, quantity ON products"
+                    + " WHEN NEW.supplier_id = OLD.supplier_id"
+                    + " AND (NEW.price != OLD.price OR NEW.quantity != OLD.quantity) BEGIN"
+                    + " UPDATE inventory_summary SET"
+                    + " total_quantity = total_quantity + NEW.quantity - OLD.quantity,"
+                    + " total_value = total_value"
+                    + " + NEW.price * NEW.quantity - OLD.price * OLD.quantity;"
+                    + " UPDATE supplier_summary SET"
+                    + " total_quantity = total_quantity + NEW.quantity - OLD.quantity,"
+                    + " total_value = total_value"
+                    + " + NEW.price * NEW.quantity - OLD.price * OLD.quantity"
+                    + " WHERE supplier_id = NEW.supplier_id;"
+                    + " END",
+            "CREATE TRIGGER summary_move AFTER UPDATE OF supplier_id ON products"
+                    + " WHEN NEW.supplier_id != OLD.supplier_id BEGIN"
+                    + " UPDATE inventory_summary SET"
+                    + " total_quantity = total_quantity + NEW.quantity - OLD.quantity,"
+                    + " total_value = total_value"
+                    + " + NEW.price * NEW.quantity - OLD.price * OLD.quantity;"
+                    + " UPDATE supplier_summary SET product_count = product_count - 1,"
+                    + " total_quantity = total_quantity - OLD.quantity,"
+                    + " total_value = total_value - OLD.price * OLD.quantity"
+                    + " WHERE supplier_id = OLD.supplier_id;"
+                    + " DELETE FROM supplier_summary WHERE supplier_id = OLD.supplier_id"
+                    + " AND product_count = 0;"
+                    + " INSERT OR IGNORE INTO supplier_summary"
+                    + " (supplier_id, product_count, total_quantity, total_value)"
+                    + " VALUES (NEW.supplier_id, 0, 0, 0);"
+                    + " UPDATE supplier_summary SET product_count = product_count + 1,"
+                    + " total_quantity = total_quantity + NEW.quantity,"
+                    + " total_value = total_value + NEW.price * NEW.quantity"
+                    + " WHERE supplier_id = NEW.supplier_id;"
+                    + " END",
+            "CREATE TRIGGER summary_delete AFTER DELETE ON products BEGIN"
+                    + " UPDATE inventory_summary SET product_count = product_count - 1,"
+                    + " total_quantity = total_quantity - OLD.quantity,"
+                    + " total_value = total_value - OLD.price * OLD.quantity;"
+                    + " UPDATE supplier_summary SET product_count = product_count - 1,"
+                    + " total_quantity = total_quantity - OLD.quantity,"
+                    + " total_value = total_value - OLD.price * OLD.quantity"
+                    + " WHERE supplier_id = OLD.supplier_id;"
+                    + " DELETE FROM supplier_summary WHERE supplier_id = OLD.supplier_id"
+                    + " AND product_count = 0;"
+                    + " END" };
+
+    /**
+     * All the schema steps, in order. Fresh databases are created at version 1 and then go
+     * through every step, so new and upgraded databases always end up with the same schema.
+     */
+    private final Migration[] mMigrations = {
+            new Migration(2) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    upgradeToVersion2(db);
+                }
+            },
+            new Migration(3) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    upgradeToVersion3(db);
+                }
+            },
+            new Migration(4) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    upgradeToVersion4(db);
+                }
+            },
+            new Migration(5) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    upgradeToVersion5(db);
+                }
+            },
+            new Migration(6) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    upgradeToVersion6(db);
+                }
+            },
+            new Migration(7) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    upgradeToVersion7(db);
+                }
+            },
+            new Migration(8) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    upgradeToVersion8(db);
+                }
+            },
+            new Migration(9) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    upgradeToVersion9(db);
+                }
+            },
+            new Migration(10) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    upgradeToVersion10(db);
+                }
+            },
+            new Migration(11) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    upgradeToVersion11(db);
+                }
+            },
+    };
+
+    /**
+     * Constructs a new instance of {@link InventoryDbHelper} with the default
+     * {@link CheckpointPolicy}.
      *
      * @param context of the app
      */
     public InventoryDbHelper(Context context) {
+        this(context, CheckpointPolicy.DEFAULT);
+    }
+
+    /**
+     * Constructs a new instance of {@link InventoryDbHelper}.
+     *
+     * @param context          of the app
+     * @param checkpointPolicy when the write-ahead log is checkpointed
+     */
+    public InventoryDbHelper(Context context, CheckpointPolicy checkpointPolicy) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mCheckpointPolicy = checkpointPolicy;
+        mImageStore = new ProductImageStore(context);
+        mDatabaseFile = context.getDatabasePath(DATABASE_NAME);
+        mWalFile = new File(mDatabaseFile.getPath() + "-wal");
+
+        // Write-ahead logging lets the catalog read while a sale is being written: readers see
+        // the last committed state and never wait for the single writer
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /**
+     * Return the database file.
+     */
+    public File getDatabaseFile() {
+        return mDatabaseFile;
+    }
+
+    /**
+     * This is called when the database connection is being configured, before it is created or
+     * upgraded (only on Jelly Bean and later).
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        configure(db);
+    }
+
+    /**
+     * This is called when the database has been opened.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        // Before Jelly Bean there is no onConfigure, so turn on write-ahead logging here
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+            configure(db);
+        }
+    }
+
+    /**
+     * Apply the connection pragmas.
+     */
+    private void configure(SQLiteDatabase db) {
+        // With a write-ahead log, NORMAL only syncs at checkpoints; a power loss can lose the
+        // last commits but never corrupts the database
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        db.execSQL("PRAGMA cache_size = -" + CACHE_SIZE_KIB);
+
+        // Products must reference an existing supplier
+        db.execSQL("PRAGMA foreign_keys = ON");
+
+        // These pragmas return a row, so they have to be run as queries
+        DatabaseUtils.longForQuery(db,
+                "PRAGMA wal_autocheckpoint = " + mCheckpointPolicy.autoCheckpointPages, null);
+        DatabaseUtils.longForQuery(db,
+                "PRAGMA journal_size_limit = " + mCheckpointPolicy.journalSizeLimitBytes, null);
+    }
+
+    /**
+     * Checkpoint the write-ahead log if it grew past the limit of the checkpoint policy. The
+     * checkpoint is passive: it copies what it can without waiting for readers or writers.
+     */
+    public void checkpointIfNeeded() {
+        synchronized (mCheckpointLock) {
+            if (mSnapshotting || mWalFile.length() <= mCheckpointPolicy.maxWalBytes) {
+                return;
+            }
+            Cursor cursor = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(PASSIVE)",
+                    null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Copy the database into the given file, as it is at one point in time, and return for how
+     * long writers were stopped, in milliseconds. The copy is a complete database on its own,
+     * without a write-ahead log.
+     *
+     * Only a checkpoint changes the database file: new commits go to the end of the log. So
+     * checkpoints are turned off and the database file is copied while writers go on. Then the
+     * log, which holds every commit made since the last checkpoint, is copied while holding the
+     * write lock, so no commit is half in the copy. Writers only wait for the log to be copied,
+     * and the copy is brought back to one file once they're running again.
+     */
+    public long snapshotTo(File file) throws IOException {
+        synchronized (mSnapshotLock) {
+            File walCopy = new File(file.getPath() + "-wal");
+            SQLiteDatabase db = getWritableDatabase();
+            long stallMillis;
+
+            // Wait for a running checkpoint, then keep new ones from starting
+            synchronized (mCheckpointLock) {
+                mSnapshotting = true;
+            }
+            setAutoCheckpoint(db, 0);
+            try {
+                copyFile(mDatabaseFile, file);
+
+                long start = SystemClock.uptimeMillis();
+                db.beginTransaction();
+                try {
+                    if (mWalFile.exists()) {
+                        copyFile(mWalFile, walCopy);
+                    } else if (walCopy.exists() && !walCopy.delete()) {
+                        throw new IOException("Can't delete " + walCopy);
+                    }
+                } finally {
+                    db.endTransaction();
+                }
+                stallMillis = SystemClock.uptimeMillis() - start;
+            } finally {
+                setAutoCheckpoint(db, mCheckpointPolicy.autoCheckpointPages);
+                synchronized (mCheckpointLock) {
+                    mSnapshotting = false;
+                }
+            }
+            checkpointIfNeeded();
+
+            // Opening the copy reads its log; leaving write-ahead logging copies the log into
+            // the database file and deletes it
+            SQLiteDatabase copy = openDatabase(file, SQLiteDatabase.OPEN_READWRITE);
+            try {
+                String mode = DatabaseUtils.stringForQuery(copy, "PRAGMA journal_mode = DELETE",
+                        null);
+                if (!"delete".equalsIgnoreCase(mode)) {
+                    throw new IOException("Can't fold the log into " + file);
+                }
+            } catch (SQLiteException e) {
+                throw new IOException("Can't fold the log into " + file, e);
+            } finally {
+                copy.close();
+            }
+            new File(file.getPath() + "-shm").delete();
+            return stallMillis;
+        }
+    }
+
+    /**
+     * Replace the database with the one in the given file, which is moved. The file must be in
+     * the same folder as the database, so the move is a rename: the database is either the old
+     * one or the new one, never a mix. The file is checked first and left alone if it's not an
+     * intact inventory database of this version or an earlier one.
+     *
+     * Writes made by other threads while the database is replaced are lost.
+     */
+    public void replaceWith(File file) throws IOException {
+        checkDatabase(file);
+
+        // getWritableDatabase() and close() hold the same lock, so the database can't be
+        // opened again before the new file is in place
+        synchronized (this) {
+            // Closing the last connection copies the log into the old database file
+            close();
+
+            // A log left behind must not be read with the new database file
+            deleteIfExists(mWalFile);
+            deleteIfExists(new File(mDatabaseFile.getPath() + "-shm"));
+            deleteIfExists(new File(mDatabaseFile.getPath() + "-journal"));
+            if (!file.renameTo(mDatabaseFile)) {
+                throw new IOException("Can't move " + file + " to " + mDatabaseFile);
+            }
+        }
+        Log.i(LOG_TAG, "Replaced the database with " + file);
+    }
+
+    /**
+     * Check that a file is an intact inventory database this helper can open.
+     */
+    private static void checkDatabase(File file) throws IOException {
+        SQLiteDatabase db;
+        try {
+            db = openDatabase(file, SQLiteDatabase.OPEN_READONLY);
+        } catch (SQLiteException e) {
+            throw new IOException("Not a database: " + file, e);
+        }
+        try {
+            String result = DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null);
+            if (!"ok".equals(result)) {
+                throw new IOException("Damaged database: " + result);
+            }
+            int version = db.getVersion();
+            if (version < 1 || version > DATABASE_VERSION) {
+                throw new IOException("Unsupported database version " + version);
+            }
+            if (DatabaseUtils.queryNumEntries(db, "sqlite_master",
+                    "type = 'table' AND name = 'products'") != 1) {
+                throw new IOException("Not an inventory database: " + file);
+            }
+        } catch (SQLiteException e) {
+            throw new IOException("Damaged database: " + file, e);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Open a database file that isn't managed by this helper. Unlike the default, a damaged
+     * file is reported and not deleted.
+     */
+    private static SQLiteDatabase openDatabase(File file, int flags) {
+        return SQLiteDatabase.openDatabase(file.getPath(), null, flags,
+                new DatabaseErrorHandler() {
+                    @Override
+                    public void onCorruption(SQLiteDatabase db) {
+                        Log.e(LOG_TAG, "Damaged database " + db.getPath());
+                    }
+                });
+    }
+
+    /**
+     * Set the number of committed pages that trigger an automatic checkpoint, 0 for none. Only
+     * the writing connection commits, and a transaction runs on it.
+     */
+    private static void setAutoCheckpoint(SQLiteDatabase db, int pages) {
+        db.beginTransaction();
+        try {
+            DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint = " + pages, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void copyFile(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void deleteIfExists(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Can't delete " + file);
+        }
     }
 
     /**
@@ -49,18 +608,21 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
-        // Create a String that contains the SQL statement to create the products table
-        String SQL_CREATE_PRODUCTS_TABLE =  "CREATE TABLE " + ProductEntry.TABLE_NAME + " ("
-                + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
-                + ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER NOT NULL, "
-                + ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL, "
-                + ProductEntry.COLUMN_PRODUCT_SUPPLIER + " TEXT NOT NULL, "
-                + ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL + " TEXT, "
-                + ProductEntry.COLUMN_PRODUCT_PICTURE + " BLOB);";
+        // Create a String that contains the SQL statement to create the version 1 products table
+        String SQL_CREATE_PRODUCTS_TABLE =  "CREATE TABLE products ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL, "
+                + "price INTEGER NOT NULL, "
+                + "quantity INTEGER NOT NULL, "
+                + "supplier TEXT NOT NULL, "
+                + "supplier_email TEXT, "
+                + "picture BLOB);";
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_PRODUCTS_TABLE);
+
+        // Bring the new database to the current version
+        migrate(db, 1, DATABASE_VERSION);
     }
 
     /**
@@ -68,6 +630,505 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        migrate(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Apply, in order, every step after oldVersion up to newVersion. This runs inside the
+     * transaction opened by {@link SQLiteOpenHelper}, so a failing step leaves the database at
+     * oldVersion.
+     */
+    private void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        int version = oldVersion;
+        for (Migration migration : mMigrations) {
+            if (migration.version <= oldVersion || migration.version > newVersion) {
+                continue;
+            }
+            if (migration.version != version + 1) {
+                throw new IllegalStateException("Missing migration to version " + (version + 1));
+            }
+            Log.i(LOG_TAG, "Upgrading database to version " + migration.version);
+            migration.apply(db);
+            version = migration.version;
+        }
+        if (version != newVersion) {
+            throw new IllegalStateException("Missing migration to version " + newVersion);
+        }
+    }
+
+    /**
+     * Version 2 moves the pictures out of the products table into the {@link ProductImageStore}
+     * and keeps only the image key and a thumbnail in the table.
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE products ADD COLUMN image_key TEXT");
+        db.execSQL("ALTER TABLE products ADD COLUMN thumbnail BLOB");
+
+        // Move the pictures a few products at a time, so we never hold more than one
+        // picture chunk in memory
+        long lastId = -1;
+        List<Long> ids = new ArrayList<>();
+        do {
+            ids.clear();
+            Cursor cursor = db.rawQuery("SELECT _id FROM products"
+                            + " WHERE picture IS NOT NULL AND _id > ? ORDER BY _id"
+                            + " LIMIT " + PICTURE_MIGRATION_BATCH,
+                    new String[] { String.valueOf(lastId) });
+            try {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            for (long id : ids) {
+                moveLegacyPicture(db, id);
+                lastId = id;
+            }
+        } while (ids.size() == PICTURE_MIGRATION_BATCH);
+
+        // SQLite can't drop a column, so rebuild the table without the picture column
+        db.execSQL("CREATE TABLE products_new ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL, "
+                + "price INTEGER NOT NULL, "
+                + "quantity INTEGER NOT NULL, "
+                + "supplier TEXT NOT NULL, "
+                + "supplier_email TEXT, "
+                + "image_key TEXT, "
+                + "thumbnail BLOB);");
+        db.execSQL("INSERT INTO products_new (_id, name, price, quantity, supplier, supplier_email,"
+                + " image_key, thumbnail) SELECT _id, name, price, quantity, supplier,"
+                + " supplier_email, image_key, thumbnail FROM products");
+        db.execSQL("DROP TABLE products");
+        db.execSQL("ALTER TABLE products_new RENAME TO products");
+    }
+
+    /**
+     * Version 3 adds the full-text search table over the name, supplier and supplier email of
+     * the products, and the triggers that keep it in sync with the products table. The docid of
+     * a search row is the _id of its product.
+     */
+    private void upgradeToVersion3(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE products_fts USING fts4(name, supplier, supplier_email)");
+
+        db.execSQL("CREATE TRIGGER products_fts_insert AFTER INSERT ON products BEGIN"
+                + " INSERT INTO products_fts (docid, name, supplier, supplier_email)"
+                + " VALUES (NEW._id, NEW.name, NEW.supplier, NEW.supplier_email);"
+                + " END");
+
+        // Only the searchable columns touch the search table, so quantity changes stay cheap
+        db.execSQL("CREATE TRIGGER products_fts_update"
+                + " AFTER UPDATE OF name, supplier, supplier_email ON products BEGIN"
+                + " UPDATE products_fts SET name = NEW.name, supplier = NEW.supplier,"
+                + " supplier_email = NEW.supplier_email WHERE docid = NEW._id;"
+                + " END");
+
+        db.execSQL("CREATE TRIGGER products_fts_delete AFTER DELETE ON products BEGIN"
+                + " DELETE FROM products_fts WHERE docid = OLD._id;"
+                + " END");
+
+        // Index the existing products
+        db.execSQL("INSERT INTO products_fts (docid, name, supplier, supplier_email)"
+                + " SELECT _id, name, supplier, supplier_email FROM products");
+    }
+
+    /**
+     * Version 4 adds the secondary indexes used by the provider queries.
+     */
+    private void upgradeToVersion4(SQLiteDatabase db) {
+        // Catalog pages are read in (name COLLATE NOCASE, _id) order; the rowid is part of
+        // every index, so this index serves both the keyset bounds and the sort
+        db.execSQL("CREATE INDEX products_name_index ON products (name COLLATE NOCASE)");
+
+        // Products of one supplier
+        db.execSQL("CREATE INDEX products_supplier_index ON products (supplier)");
+
+        // Pictures still in use when a product is deleted or its picture replaced
+        db.execSQL("CREATE INDEX products_image_key_index ON products (image_key)");
+
+        // Low stock products. A partial index only holds the few low stock rows, but it needs
+        // SQLite 3.8.0; older platforms get a plain index on the quantity.
+        if (supportsPartialIndexes(db)) {
+            db.execSQL("CREATE INDEX products_low_stock_index ON products (quantity)"
+                    + " WHERE quantity <= 5");
+        } else {
+            db.execSQL("CREATE INDEX products_low_stock_index ON products (quantity)");
+        }
+    }
+
+    /**
+     * Version 5 adds the append-only stock movements ledger. Inserting a movement is the only
+     * way to change a quantity: a trigger adds its delta to the quantity of the product in the
+     * same statement. The current quantities are recorded as opening movements.
+     */
+    private void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE stock_movements ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "product_id INTEGER NOT NULL, "
+                + "delta INTEGER NOT NULL, "
+                + "reason TEXT NOT NULL, "
+                + "created_at INTEGER NOT NULL);");
+
+        // Movements are read per product in time order
+        db.execSQL("CREATE INDEX stock_movements_product_index"
+                + " ON stock_movements (product_id, created_at)");
+
+        // Record the existing stock as opening movements. This runs before the trigger exists,
+        // so the quantities are not added a second time.
+        db.execSQL("INSERT INTO stock_movements (product_id, delta, reason, created_at)"
+                + " SELECT _id, quantity, 'initial', CAST(strftime('%s', 'now') AS INTEGER) * 1000"
+                + " FROM products WHERE quantity != 0");
+
+        execAll(db, STOCK_MOVEMENTS_TRIGGERS);
+    }
+
+    /**
+     * Version 6 adds the version of the products, checked and incremented by the updates so a
+     * write made from a stale copy of a product is refused.
+     */
+    private void upgradeToVersion6(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE products ADD COLUMN version INTEGER NOT NULL DEFAULT 0");
+    }
+
+    /**
+     * Version 7 adds the reorder threshold of the products and the low stock table, which
+     * triggers keep in step with the quantities and thresholds. Every time a product is flagged
+     * or cleared the triggers also increment the generation in low_stock_state, so the
+     * provider can tell a write that changed the low stock products with one read.
+     */
+    private void upgradeToVersion7(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE products ADD COLUMN reorder_threshold INTEGER NOT NULL DEFAULT 5");
+
+        db.execSQL("CREATE TABLE low_stock ("
+                + "product_id INTEGER PRIMARY KEY, "
+                + "flagged_at INTEGER NOT NULL);");
+        db.execSQL("CREATE TABLE low_stock_state (generation INTEGER NOT NULL)");
+        db.execSQL("INSERT INTO low_stock_state (generation) VALUES (0)");
+
+        // Flag the products already low on stock
+        db.execSQL("INSERT INTO low_stock (product_id, flagged_at)"
+                + " SELECT _id, CAST(strftime('%s', 'now') AS INTEGER) * 1000 FROM products"
+                + " WHERE quantity <= reorder_threshold");
+
+        // The triggers only run when a product crosses its threshold, so most stock movements
+        // don't touch the low stock tables
+        execAll(db, LOW_STOCK_TRIGGERS);
+    }
+
+    /**
+     * Version 8 adds the target quantity of the products and the purchase orders. An order
+     * keeps the name and price of its products as they were when it was generated, so it still
+     * reads the same once they change.
+     */
+    private void upgradeToVersion8(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE products ADD COLUMN target_quantity INTEGER NOT NULL DEFAULT 10");
+
+        db.execSQL("CREATE TABLE orders ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "supplier TEXT NOT NULL, "
+                + "supplier_email TEXT, "
+                + "status TEXT NOT NULL, "
+                + "created_at INTEGER NOT NULL, "
+                + "closed_at INTEGER);");
+
+        db.execSQL("CREATE TABLE order_items ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "order_id INTEGER NOT NULL, "
+                + "product_id INTEGER NOT NULL, "
+                + "name TEXT NOT NULL, "
+                + "quantity INTEGER NOT NULL, "
+                + "price INTEGER NOT NULL);");
+
+        // Items are read per order, and looked up per product to skip the products already on
+        // order when orders are generated
+        db.execSQL("CREATE INDEX order_items_order_index ON order_items (order_id)");
+        db.execSQL("CREATE INDEX order_items_product_index ON order_items (product_id)");
+    }
+
+    /**
+     * Version 9 adds the inventory summary: the totals of all the products in one row, and the
+     * same totals per supplier. They are computed once here; from then on triggers add the
+     * difference each write makes, so reading them never scans the products. A stock movement
+     * changes the quantity through its own trigger, which runs the summary triggers in turn.
+     */
+    private void upgradeToVersion9(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE inventory_summary ("
+                + "product_count INTEGER NOT NULL, "
+                + "total_quantity INTEGER NOT NULL, "
+                + "total_value INTEGER NOT NULL);");
+        db.execSQL("INSERT INTO inventory_summary (product_count, total_quantity, total_value)"
+                + " SELECT count(*), ifnull(sum(quantity), 0), ifnull(sum(price * quantity), 0)"
+                + " FROM products");
+
+        db.execSQL("CREATE TABLE supplier_summary ("
+                + "supplier TEXT PRIMARY KEY, "
+                + "product_count INTEGER NOT NULL, "
+                + "total_quantity INTEGER NOT NULL, "
+                + "total_value INTEGER NOT NULL);");
+        db.execSQL("INSERT INTO supplier_summary"
+                + " (supplier, product_count, total_quantity, total_value)"
+                + " SELECT supplier, count(*), sum(quantity), sum(price * quantity)"
+                + " FROM products GROUP BY supplier");
+
+        db.execSQL("CREATE TRIGGER summary_insert AFTER INSERT ON products BEGIN"
+                + " UPDATE inventory_summary SET product_count = product_count + 1,"
+                + " total_quantity = total_quantity + NEW.quantity,"
+                + " total_value = total_value + NEW.price * NEW.quantity;"
+                + " INSERT OR IGNORE INTO supplier_summary"
+                + " (supplier, product_count, total_quantity, total_value)"
+                + " VALUES (NEW.supplier, 0, 0, 0);"
+                + " UPDATE supplier_summary SET product_count = product_count + 1,"
+                + " total_quantity = total_quantity + NEW.quantity,"
+                + " total_value = total_value + NEW.price * NEW.quantity"
+                + " WHERE supplier = NEW.supplier;"
+                + " END");
+
+        // Sales and deliveries only change the quantity: one update of each summary row
+        db.execSQL("CREATE TRIGGER summary_update"
+                + " AFTER UPDATE OF price, quantity ON products"
+                + " WHEN NEW.supplier = OLD.supplier"
+                + " AND (NEW.price != OLD.price OR NEW.quantity != OLD.quantity) BEGIN"
+                + " UPDATE inventory_summary SET"
+                + " total_quantity = total_quantity + NEW.quantity - OLD.quantity,"
+                + " total_value = total_value + NEW.price * NEW.quantity - OLD.price * OLD.quantity;"
+                + " UPDATE supplier_summary SET"
+                + " total_quantity = total_quantity + NEW.quantity - OLD.quantity,"
+                + " total_value = total_value + NEW.price * NEW.quantity - OLD.price * OLD.quantity"
+                + " WHERE supplier = NEW.supplier;"
+                + " END");
+
+        // A product moved to another supplier leaves the totals of the old one, which is
+        // dropped once it has no products
+        db.execSQL("CREATE TRIGGER summary_move AFTER UPDATE OF supplier ON products"
+                + " WHEN NEW.supplier != OLD.supplier BEGIN"
+                + " UPDATE inventory_summary SET"
+                + " total_quantity = total_quantity + NEW.quantity - OLD.quantity,"
+                + " total_value = total_value + NEW.price * NEW.quantity - OLD.price * OLD.quantity;"
+                + " UPDATE supplier_summary SET product_count = product_count - 1,"
+                + " total_quantity = total_quantity - OLD.quantity,"
+                + " total_value = total_value - OLD.price * OLD.quantity"
+                + " WHERE supplier = OLD.supplier;"
+                + " DELETE FROM supplier_summary WHERE supplier = OLD.supplier"
+                + " AND product_count = 0;"
+                + " INSERT OR IGNORE INTO supplier_summary"
+                + " (supplier, product_count, total_quantity, total_value)"
+                + " VALUES (NEW.supplier, 0, 0, 0);"
+                + " UPDATE supplier_summary SET product_count = product_count + 1,"
+                + " total_quantity = total_quantity + NEW.quantity,"
+                + " total_value = total_value + NEW.price * NEW.quantity"
+                + " WHERE supplier = NEW.supplier;"
+                + " END");
+
+        db.execSQL("CREATE TRIGGER summary_delete AFTER DELETE ON products BEGIN"
+                + " UPDATE inventory_summary SET product_count = product_count - 1,"
+                + " total_quantity = total_quantity - OLD.quantity,"
+                + " total_value = total_value - OLD.price * OLD.quantity;"
+                + " UPDATE supplier_summary SET product_count = product_count - 1,"
+                + " total_quantity = total_quantity - OLD.quantity,"
+                + " total_value = total_value - OLD.price * OLD.quantity"
+                + " WHERE supplier = OLD.supplier;"
+                + " DELETE FROM supplier_summary WHERE supplier = OLD.supplier"
+                + " AND product_count = 0;"
+                + " END");
+    }
+
+    /**
+     * Version 10 moves the suppliers out of the products into their own table, one row per
+     * distinct supplier name and email, referenced by the supplier_id of the products. The
+     * products table is rebuilt without the supplier columns, so its triggers and indexes are
+     * created again; the search table and the summary per supplier now follow the supplier of
+     * each product through its id. The product_details view joins every product to its
+     * supplier for the reads that show them.
+     */
+    private void upgradeToVersion10(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE suppliers ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL, "
+                + "email TEXT);");
+
+        // Suppliers are found by name and email when a product is written
+        db.execSQL("CREATE UNIQUE INDEX suppliers_name_index ON suppliers (name, email)");
+
+        // One supplier per distinct name and email, DISTINCT treats the missing emails as equal
+        db.execSQL("INSERT INTO suppliers (name, email)"
+                + " SELECT DISTINCT supplier, supplier_email FROM products"
+                + " ORDER BY supplier COLLATE NOCASE");
+
+        // SQLite can't drop a column, so rebuild the table with the supplier id instead of the
+        // supplier columns. The ledger trigger refers to the products table, it's dropped
+        // while the table is replaced so the rename doesn't trip on it.
+        db.execSQL("DROP TRIGGER stock_movements_apply");
+        db.execSQL("CREATE TABLE products_new ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL, "
+                + "price INTEGER NOT NULL, "
+                + "quantity INTEGER NOT NULL, "
+                + "supplier_id INTEGER NOT NULL REFERENCES suppliers (_id), "
+                + "image_key TEXT, "
+                + "thumbnail BLOB, "
+                + "version INTEGER NOT NULL DEFAULT 0, "
+                + "reorder_threshold INTEGER NOT NULL DEFAULT 5, "
+                + "target_quantity INTEGER NOT NULL DEFAULT 10);");
+        db.execSQL("INSERT INTO products_new (_id, name, price, quantity, supplier_id, image_key,"
+                + " thumbnail, version, reorder_threshold, target_quantity)"
+                + " SELECT products._id, products.name, price, quantity, suppliers._id, image_key,"
+                + " thumbnail, version, reorder_threshold, target_quantity"
+                + " FROM products JOIN suppliers ON suppliers.name = products.supplier"
+                + " AND suppliers.email IS products.supplier_email");
+
+        // Keep the ids of deleted products from being given out again: the ledger and the
+        // orders still refer to them
+        db.execSQL("UPDATE sqlite_sequence SET seq = (SELECT seq FROM sqlite_sequence"
+                + " WHERE name = 'products') WHERE name = 'products_new'");
+        db.execSQL("DROP TABLE products");
+        db.execSQL("ALTER TABLE products_new RENAME TO products");
+
+        execAll(db, STOCK_MOVEMENTS_TRIGGERS);
+
+        // The indexes of version 4, the products of one supplier now in name order
+        db.execSQL("CREATE INDEX products_name_index ON products (name COLLATE NOCASE)");
+        db.execSQL("CREATE INDEX products_supplier_index"
+                + " ON products (supplier_id, name COLLATE NOCASE)");
+        db.execSQL("CREATE INDEX products_image_key_index ON products (image_key)");
+        // The low stock index of version 4 isn't made again: each product has its own
+        // threshold since version 7, and the low_stock table lists the products below it
+
+        // The search table now reads the supplier name and email from the supplier
+        execAll(db, SEARCH_TRIGGERS);
+        execAll(db, LOW_STOCK_TRIGGERS);
+
+        // The summary per supplier of version 9, keyed by the supplier id. A renamed supplier
+        // keeps its totals.
+        db.execSQL("DROP TABLE supplier_summary");
+        db.execSQL("CREATE TABLE supplier_summary ("
+                + "supplier_id INTEGER PRIMARY KEY, "
+                + "product_count INTEGER NOT NULL, "
+                + "total_quantity INTEGER NOT NULL, "
+                + "total_value INTEGER NOT NULL);");
+        db.execSQL("INSERT INTO supplier_summary"
+                + " (supplier_id, product_count, total_quantity, total_value)"
+                + " SELECT supplier_id, count(*), sum(quantity), sum(price * quantity)"
+                + " FROM products GROUP BY supplier_id");
+
+        execAll(db, SUMMARY_TRIGGERS);
+
+        // The products with the name and email of their supplier, under the column names
+        // the products had before
+        db.execSQL("CREATE VIEW product_details AS SELECT"
+                + " products._id AS _id, products.name AS name, price, quantity, supplier_id,"
+                + " suppliers.name AS supplier, suppliers.email AS supplier_email, image_key,"
+                + " thumbnail, version, reorder_threshold, target_quantity"
+                + " FROM products JOIN suppliers ON suppliers._id = products.supplier_id");
+    }
+
+    /**
+     * Version 11 rebuilds the search table with prefix indexes of 2 and 3 characters. Every
+     * search matches its words as prefixes, which without them reads the doclists of every
+     * term that starts with the prefix; with them a word of 2 or 3 characters reads one
+     * precomputed doclist. SQLite before 3.7.7 has no prefix indexes, the table is rebuilt
+     * the same way there but without them.
+     */
+    private void upgradeToVersion11(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER products_fts_insert");
+        db.execSQL("DROP TRIGGER products_fts_update");
+        db.execSQL("DROP TRIGGER products_fts_delete");
+        db.execSQL("DROP TRIGGER suppliers_fts_update");
+        db.execSQL("DROP TABLE products_fts");
+
+        if (sqliteVersionCode(db) >= 3007007) {
+            db.execSQL("CREATE VIRTUAL TABLE products_fts"
+                    + " USING fts4(name, supplier, supplier_email, prefix=\"2,3\")");
+        } else {
+            db.execSQL("CREATE VIRTUAL TABLE products_fts"
+                    + " USING fts4(name, supplier, supplier_email)");
+        }
+        db.execSQL("INSERT INTO products_fts (docid, name, supplier, supplier_email)"
+                + " SELECT products._id, products.name, suppliers.name, suppliers.email"
+                + " FROM products JOIN suppliers ON suppliers._id = products.supplier_id");
+
+        execAll(db, SEARCH_TRIGGERS);
+    }
+
+    /**
+     * Return true if the SQLite library supports partial indexes (version 3.8.0 and later).
+     */
+    private static boolean supportsPartialIndexes(SQLiteDatabase db) {
+        return sqliteVersionCode(db) >= 3008000;
+    }
+
+    /**
+     * Return the version of the SQLite library as one number, 3.7.11 being 3007011.
+     */
+    private static int sqliteVersionCode(SQLiteDatabase db) {
+        String[] version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null)
+                .split("\\.");
+        int code = 0;
+        for (int i = 0; i < 3; i++) {
+            code = code * 1000 + (i < version.length ? Integer.parseInt(version[i]) : 0);
+        }
+        return code;
+    }
+
+    /**
+     * Run the given statements in order.
+     */
+    private static void execAll(SQLiteDatabase db, String[] statements) {
+        for (String statement : statements) {
+            db.execSQL(statement);
+        }
+    }
+
+    /**
+     * Copy the legacy picture of one product into the image store, reading the BLOB in chunks
+     * so that large pictures never have to fit in a single CursorWindow.
+     */
+    private void moveLegacyPicture(SQLiteDatabase db, long id) {
+        String[] idArgs = new String[] { String.valueOf(id) };
+
+        long length;
+        Cursor cursor = db.rawQuery("SELECT length(picture) FROM products WHERE _id = ?", idArgs);
+        try {
+            length = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+
+        String key = null;
+        byte[] thumbnail = null;
+        if (length > 0) {
+            try {
+                ProductImageStore.Writer writer = mImageStore.beginWrite();
+                try {
+                    // substr() on a BLOB is 1-based and returns bytes
+                    for (long offset = 1; offset <= length; offset += PICTURE_MIGRATION_CHUNK) {
+                        cursor = db.rawQuery("SELECT substr(picture, ?, ?) FROM products WHERE _id = ?",
+                                new String[] { String.valueOf(offset),
+                                        String.valueOf(PICTURE_MIGRATION_CHUNK), String.valueOf(id) });
+                        try {
+                            if (cursor.moveToFirst()) {
+                                byte[] chunk = cursor.getBlob(0);
+                                writer.write(chunk, 0, chunk.length);
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                    key = writer.commit();
+                } finally {
+                    writer.abort();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to move picture of product " + id, e);
+            }
+            thumbnail = mImageStore.createThumbnail(key);
+        }
+
+        ContentValues values = new ContentValues();
+        values.put("image_key", key);
+        values.put("thumbnail", thumbnail);
+        values.putNull("picture");
+        db.update("products", values, "_id = ?", idArgs);
     }
-}
\ No newline at end of file
+}
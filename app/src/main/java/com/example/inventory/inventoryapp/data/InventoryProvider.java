@@ -16,14 +16,53 @@
 package com.example.inventory.inventoryapp.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.Context;
 import android.content.UriMatcher;
+import android.content.pm.ApplicationInfo;
+import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
 import android.util.Log;
+import android.webkit.MimeTypeMap;
+import com.example.inventory.inventoryapp.R;
+import com.example.inventory.inventoryapp.data.InventoryContract.Backup;
+import com.example.inventory.inventoryapp.data.InventoryContract.LowStockEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.Metrics;
+import com.example.inventory.inventoryapp.data.InventoryContract.OrderEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.OrderItemEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.PictureEntry;
 import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.StockMovementEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.SummaryEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.SupplierEntry;
+import com.example.inventory.inventoryapp.data.InventoryDbHelper.CheckpointPolicy;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * {@link ContentProvider} for Inventory app.
@@ -39,6 +78,295 @@ public class InventoryProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single product in the products table */
     private static final int PRODUCT_ID = 101;
 
+    /** URI matcher code for the content URI that adjusts the quantity of a single product */
+    private static final int PRODUCT_ADJUST = 102;
+
+    /** URI matcher code for the content URI that searches the products */
+    private static final int PRODUCT_SEARCH = 103;
+
+    /** URI matcher code for the content URI for the stock movements of a single product */
+    private static final int PRODUCT_MOVEMENTS = 104;
+
+    /** URI matcher code for the content URI that inserts or updates products in bulk */
+    private static final int PRODUCT_UPSERT = 105;
+
+    /** URI matcher code for the content URI that exports the products as a file */
+    private static final int PRODUCT_EXPORT = 106;
+
+    /** URI matcher code for the content URI that lists the pictures */
+    private static final int PICTURES = 107;
+
+    /** URI matcher code for the content URI for a single picture */
+    private static final int PICTURE_KEY = 108;
+
+    /** URI matcher code for the content URI that lists the low stock products */
+    private static final int PRODUCT_LOW_STOCK = 109;
+
+    /** URI matcher code for the content URI for the purchase orders */
+    private static final int ORDERS = 110;
+
+    /** URI matcher code for the content URI for a single purchase order */
+    private static final int ORDER_ID = 111;
+
+    /** URI matcher code for the content URI for the items of a single purchase order */
+    private static final int ORDER_ITEMS = 112;
+
+    /** URI matcher code for the content URI for the inventory summary */
+    private static final int PRODUCT_SUMMARY = 113;
+
+    /** URI matcher code for the content URI for the inventory summary per supplier */
+    private static final int PRODUCT_SUPPLIER_SUMMARY = 114;
+
+    /** URI matcher code for the content URI for the suppliers table */
+    private static final int SUPPLIERS = 115;
+
+    /** URI matcher code for the content URI for a single supplier in the suppliers table */
+    private static final int SUPPLIER_ID = 116;
+
+    /** URI matcher code for the content URI for the products of a single supplier */
+    private static final int SUPPLIER_PRODUCTS = 117;
+
+    /** URI patterns named in the metrics, in the order of their codes from {@link #PRODUCTS} */
+    private static final String[] URI_PATTERNS = {
+            "products", "products/#", "products/#/adjust", "products/search",
+            "products/#/movements", "products/upsert", "products/export", "pictures",
+            "pictures/*", "products/low_stock", "orders", "orders/#", "orders/#/items",
+            "products/summary", "products/summary/suppliers", "suppliers", "suppliers/#",
+            "suppliers/#/products" };
+
+    /** Number of search results returned when the URI doesn't give a limit */
+    private static final int DEFAULT_SEARCH_LIMIT = 100;
+
+    /**
+     * Record a stock movement of one product in a single statement, refusing to take the
+     * quantity below 0: nothing is inserted if the product doesn't exist or hasn't enough stock.
+     * A trigger adds the delta to the quantity, so two quick taps can't lose an update.
+     * Bound to delta, reason, time, product id and delta again.
+     */
+    private static final String SQL_INSERT_MOVEMENT = "INSERT INTO " + StockMovementEntry.TABLE_NAME
+            + " (" + StockMovementEntry.COLUMN_PRODUCT_ID + ", " + StockMovementEntry.COLUMN_DELTA
+            + ", " + StockMovementEntry.COLUMN_REASON + ", " + StockMovementEntry.COLUMN_CREATED_AT
+            + ") SELECT " + ProductEntry._ID + ", ?, ?, ? FROM " + ProductEntry.TABLE_NAME
+            + " WHERE " + ProductEntry._ID + " = ?"
+            + " AND " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + ? >= 0";
+
+    /**
+     * Record the movements that bring every selected product to a new quantity. Bound to the
+     * new quantity, time and new quantity again, followed by the selection.
+     */
+    private static final String SQL_INSERT_CORRECTIONS = "INSERT INTO " + StockMovementEntry.TABLE_NAME
+            + " (" + StockMovementEntry.COLUMN_PRODUCT_ID + ", " + StockMovementEntry.COLUMN_DELTA
+            + ", " + StockMovementEntry.COLUMN_REASON + ", " + StockMovementEntry.COLUMN_CREATED_AT
+            + ") SELECT " + ProductEntry._ID + ", ? - " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + ", '" + StockMovementEntry.REASON_CORRECTION + "', ? FROM " + ProductEntry.TABLE_NAME
+            + " WHERE " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " != ?";
+
+    /** Movements of one product, bounded in time by the movements URI */
+    private static final String MOVEMENTS_SELECTION = StockMovementEntry.COLUMN_PRODUCT_ID + " = ?";
+
+    /** Movements are returned oldest first */
+    private static final String MOVEMENTS_ORDER = StockMovementEntry.COLUMN_CREATED_AT + ", "
+            + StockMovementEntry._ID;
+
+    /** Product name compared and sorted the way the catalog shows it, ignoring case */
+    private static final String NAME_NOCASE = ProductEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE";
+
+    /**
+     * Low stock products joined to their product and supplier. CROSS JOIN keeps SQLite from
+     * reordering the join: the few flagged rows are read first and each product is found by
+     * its id.
+     */
+    private static final String LOW_STOCK_TABLES = LowStockEntry.TABLE_NAME + " CROSS JOIN "
+            + ProductEntry.VIEW_NAME + " ON " + ProductEntry.VIEW_NAME + "." + ProductEntry._ID
+            + " = " + LowStockEntry.TABLE_NAME + "." + LowStockEntry.COLUMN_PRODUCT_ID;
+
+    /** Low stock products are returned emptiest first */
+    private static final String LOW_STOCK_ORDER = ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+            + NAME_NOCASE + ", " + ProductEntry.VIEW_NAME + "." + ProductEntry._ID;
+
+    /** Incremented by the low stock triggers every time a product is flagged or cleared */
+    private static final String SQL_LOW_STOCK_GENERATION =
+            "SELECT generation FROM low_stock_state";
+
+    /**
+     * Products to order: low stock products below their target quantity that are not already
+     * in an open order, with the quantity that brings them up to their target. It starts from
+     * the low stock table, so it reads as many products as there are flagged.
+     */
+    private static final String SQL_ORDER_CANDIDATES = "SELECT "
+            + ProductEntry.VIEW_NAME + "." + ProductEntry._ID + " AS product_id, "
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+            + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER + ", "
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL + ", "
+            + ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY + " - "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + " AS quantity"
+            + " FROM " + LOW_STOCK_TABLES
+            + " WHERE " + ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY + " > "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + " AND NOT EXISTS (SELECT 1 FROM " + OrderItemEntry.TABLE_NAME + " CROSS JOIN "
+            + OrderEntry.TABLE_NAME + " ON " + OrderEntry.TABLE_NAME + "." + OrderEntry._ID + " = "
+            + OrderItemEntry.COLUMN_ORDER_ID + " WHERE " + OrderItemEntry.COLUMN_PRODUCT_ID + " = "
+            + ProductEntry.VIEW_NAME + "." + ProductEntry._ID + " AND " + OrderEntry.COLUMN_STATUS
+            + " = '" + OrderEntry.STATUS_OPEN + "')";
+
+    /**
+     * Create one open order per supplier and supplier email of the products to order. Bound to
+     * the time.
+     */
+    private static final String SQL_INSERT_ORDERS = "INSERT INTO " + OrderEntry.TABLE_NAME
+            + " (" + OrderEntry.COLUMN_SUPPLIER + ", " + OrderEntry.COLUMN_SUPPLIER_EMAIL + ", "
+            + OrderEntry.COLUMN_STATUS + ", " + OrderEntry.COLUMN_CREATED_AT + ") SELECT "
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER + ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL
+            + ", '" + OrderEntry.STATUS_OPEN + "', ? FROM (" + SQL_ORDER_CANDIDATES + ")"
+            + " GROUP BY " + ProductEntry.COLUMN_PRODUCT_SUPPLIER + ", "
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL
+            + " ORDER BY " + ProductEntry.COLUMN_PRODUCT_SUPPLIER + " COLLATE NOCASE";
+
+    /**
+     * Add the products to order to the orders of their supplier created after the given id.
+     * The email is compared with IS so the products without one find their order. Bound to the
+     * last order id before the orders were created.
+     */
+    private static final String SQL_INSERT_ORDER_ITEMS = "INSERT INTO " + OrderItemEntry.TABLE_NAME
+            + " (" + OrderItemEntry.COLUMN_ORDER_ID + ", " + OrderItemEntry.COLUMN_PRODUCT_ID + ", "
+            + OrderItemEntry.COLUMN_NAME + ", " + OrderItemEntry.COLUMN_QUANTITY + ", "
+            + OrderItemEntry.COLUMN_PRICE + ") SELECT o." + OrderEntry._ID + ", c.product_id, c."
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", c.quantity, c." + ProductEntry.COLUMN_PRODUCT_PRICE
+            + " FROM (" + SQL_ORDER_CANDIDATES + ") c JOIN " + OrderEntry.TABLE_NAME + " o"
+            + " ON o." + OrderEntry.COLUMN_SUPPLIER + " = c." + ProductEntry.COLUMN_PRODUCT_SUPPLIER
+            + " AND o." + OrderEntry.COLUMN_SUPPLIER_EMAIL + " IS c."
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL
+            + " WHERE o." + OrderEntry._ID + " > ?";
+
+    /**
+     * Close an open order. Bound to the new status, the time and the order id.
+     */
+    private static final String SQL_CLOSE_ORDER = "UPDATE " + OrderEntry.TABLE_NAME
+            + " SET " + OrderEntry.COLUMN_STATUS + " = ?, " + OrderEntry.COLUMN_CLOSED_AT + " = ?"
+            + " WHERE " + OrderEntry._ID + " = ? AND " + OrderEntry.COLUMN_STATUS + " = '"
+            + OrderEntry.STATUS_OPEN + "'";
+
+    /**
+     * Record the stock received with an order, skipping the products deleted since it was
+     * generated. Bound to the time and the order id.
+     */
+    private static final String SQL_RECEIVE_ORDER_ITEMS = "INSERT INTO "
+            + StockMovementEntry.TABLE_NAME + " (" + StockMovementEntry.COLUMN_PRODUCT_ID + ", "
+            + StockMovementEntry.COLUMN_DELTA + ", " + StockMovementEntry.COLUMN_REASON + ", "
+            + StockMovementEntry.COLUMN_CREATED_AT + ") SELECT "
+            + OrderItemEntry.COLUMN_PRODUCT_ID + ", " + OrderItemEntry.COLUMN_QUANTITY + ", '"
+            + StockMovementEntry.REASON_ORDER + "', ? FROM " + OrderItemEntry.TABLE_NAME
+            + " WHERE " + OrderItemEntry.COLUMN_ORDER_ID + " = ? AND "
+            + OrderItemEntry.COLUMN_PRODUCT_ID + " IN (SELECT " + ProductEntry._ID + " FROM "
+            + ProductEntry.TABLE_NAME + ")";
+
+    /** Orders are returned newest first */
+    private static final String ORDERS_ORDER = OrderEntry.COLUMN_CREATED_AT + " DESC, "
+            + OrderEntry._ID + " DESC";
+
+    /** Items of one order */
+    private static final String ORDER_ITEMS_SELECTION = OrderItemEntry.COLUMN_ORDER_ID + " = ?";
+
+    /** Columns of the orders, with the computed ones read from their items */
+    private static final Map<String, String> ORDERS_PROJECTION_MAP = new HashMap<>();
+
+    static {
+        for (String column : new String[] { OrderEntry._ID, OrderEntry.COLUMN_SUPPLIER,
+                OrderEntry.COLUMN_SUPPLIER_EMAIL, OrderEntry.COLUMN_STATUS,
+                OrderEntry.COLUMN_CREATED_AT, OrderEntry.COLUMN_CLOSED_AT }) {
+            ORDERS_PROJECTION_MAP.put(column, column);
+        }
+        String items = " FROM " + OrderItemEntry.TABLE_NAME + " WHERE "
+                + OrderItemEntry.COLUMN_ORDER_ID + " = " + OrderEntry.TABLE_NAME + "."
+                + OrderEntry._ID + ")";
+        ORDERS_PROJECTION_MAP.put(OrderEntry.COLUMN_ITEM_COUNT,
+                "(SELECT count(*)" + items + " AS " + OrderEntry.COLUMN_ITEM_COUNT);
+        ORDERS_PROJECTION_MAP.put(OrderEntry.COLUMN_TOTAL_QUANTITY,
+                "(SELECT ifnull(sum(" + OrderItemEntry.COLUMN_QUANTITY + "), 0)" + items + " AS "
+                        + OrderEntry.COLUMN_TOTAL_QUANTITY);
+    }
+
+    /** Columns of the inventory summary, with the number of suppliers read from their table */
+    private static final Map<String, String> SUMMARY_PROJECTION_MAP = new HashMap<>();
+
+    static {
+        for (String column : new String[] { SummaryEntry.COLUMN_PRODUCT_COUNT,
+                SummaryEntry.COLUMN_TOTAL_QUANTITY, SummaryEntry.COLUMN_TOTAL_VALUE }) {
+            SUMMARY_PROJECTION_MAP.put(column, column);
+        }
+        SUMMARY_PROJECTION_MAP.put(SummaryEntry.COLUMN_SUPPLIER_COUNT, "(SELECT count(*) FROM "
+                + SummaryEntry.SUPPLIERS_TABLE_NAME + ") AS " + SummaryEntry.COLUMN_SUPPLIER_COUNT);
+    }
+
+    /** Summary per supplier joined to the supplier for its name and email */
+    private static final String SUPPLIER_SUMMARY_TABLES = SummaryEntry.SUPPLIERS_TABLE_NAME
+            + " JOIN " + SupplierEntry.TABLE_NAME + " ON " + SupplierEntry.TABLE_NAME + "."
+            + SupplierEntry._ID + " = " + SummaryEntry.SUPPLIERS_TABLE_NAME + "."
+            + SummaryEntry.COLUMN_SUPPLIER_ID;
+
+    /** Columns of the summary per supplier, with the supplier read from its table */
+    private static final Map<String, String> SUPPLIER_SUMMARY_PROJECTION_MAP = new HashMap<>();
+
+    static {
+        for (String column : new String[] { SummaryEntry.COLUMN_SUPPLIER_ID,
+                SummaryEntry.COLUMN_PRODUCT_COUNT, SummaryEntry.COLUMN_TOTAL_QUANTITY,
+                SummaryEntry.COLUMN_TOTAL_VALUE }) {
+            SUPPLIER_SUMMARY_PROJECTION_MAP.put(column, column);
+        }
+        SUPPLIER_SUMMARY_PROJECTION_MAP.put(SummaryEntry.COLUMN_SUPPLIER,
+                SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS "
+                        + SummaryEntry.COLUMN_SUPPLIER);
+    }
+
+    /** Suppliers are returned in name order */
+    private static final String SUPPLIERS_ORDER = SupplierEntry.COLUMN_SUPPLIER_NAME
+            + " COLLATE NOCASE, " + SupplierEntry._ID;
+
+    /**
+     * Products of one supplier. With the name order it is read from the supplier index, which
+     * holds them in that order.
+     */
+    private static final String SUPPLIER_PRODUCTS_SELECTION =
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " = ?";
+
+    /** Suppliers no product refers to, found through the supplier index of the products */
+    private static final String UNUSED_SUPPLIERS_SELECTION = SupplierEntry._ID + " NOT IN (SELECT "
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " FROM " + ProductEntry.TABLE_NAME + ")";
+
+    /** Product replaced by an upsert: same name ignoring case, same supplier name */
+    private static final String UPSERT_SELECTION = NAME_NOCASE + " = ? AND "
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " IN (SELECT " + SupplierEntry._ID
+            + " FROM " + SupplierEntry.TABLE_NAME + " WHERE "
+            + SupplierEntry.COLUMN_SUPPLIER_NAME + " = ?)";
+
+    /**
+     * Columns written by {@link #bulkInsert}, in the order of {@link #SQL_INSERT_PRODUCT}. The
+     * quantity starts at 0, the stock is recorded as a movement.
+     */
+    private static final String[] INSERT_COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_KEY,
+            ProductEntry.COLUMN_PRODUCT_THUMBNAIL,
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD,
+            ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY};
+
+    /**
+     * Parameters of {@link #INSERT_COLUMNS}. The statement binds every column of every row, so
+     * the columns with a default take it when the row leaves them out (bound as null).
+     */
+    private static final String[] INSERT_PARAMETERS = {
+            "?", "?", "?", "?", "?",
+            "ifnull(?, " + ProductEntry.DEFAULT_REORDER_THRESHOLD + ")",
+            "ifnull(?, " + ProductEntry.DEFAULT_TARGET_QUANTITY + ")"};
+
+    /** Insert statement compiled once per {@link #bulkInsert} and reused for every row */
+    private static final String SQL_INSERT_PRODUCT = "INSERT INTO " + ProductEntry.TABLE_NAME
+            + " (" + TextUtils.join(", ", INSERT_COLUMNS) + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + ") VALUES (" + TextUtils.join(", ", INSERT_PARAMETERS) + ", 0)";
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -63,20 +391,183 @@ public class InventoryProvider extends ContentProvider {
         //
         // In this case, the "#" wildcard is used where "#" can be substituted for an integer.
         sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+
+        // The content URI of the form "products/search?q=..." will map to the integer code
+        // {@link #PRODUCT_SEARCH}. This URI is used to search the products table.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS
+                + "/" + InventoryContract.PATH_SEARCH, PRODUCT_SEARCH);
+
+        // The content URI of the form "products/upsert" will map to the integer code
+        // {@link #PRODUCT_UPSERT}. This URI is used to import products in bulk.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS
+                + "/" + InventoryContract.PATH_UPSERT, PRODUCT_UPSERT);
+
+        // The content URI of the form "products/export?format=csv" will map to the integer code
+        // {@link #PRODUCT_EXPORT}. This URI is opened as a file holding all the products.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS
+                + "/" + InventoryContract.PATH_EXPORT, PRODUCT_EXPORT);
+
+        // The content URIs of the form "pictures" and "pictures/<key>" will map to the integer
+        // codes {@link #PICTURES} and {@link #PICTURE_KEY}. They are used to list the pictures
+        // and to open ONE picture as a file.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PICTURES,
+                PICTURES);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PICTURES
+                + "/*", PICTURE_KEY);
+
+        // The content URI of the form "products/low_stock" will map to the integer code
+        // {@link #PRODUCT_LOW_STOCK}. This URI is used to list the products low on stock.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS
+                + "/" + InventoryContract.PATH_LOW_STOCK, PRODUCT_LOW_STOCK);
+
+        // The content URIs of the form "products/summary" and "products/summary/suppliers"
+        // will map to the integer codes {@link #PRODUCT_SUMMARY} and
+        // {@link #PRODUCT_SUPPLIER_SUMMARY}. They are used to read the inventory totals.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS
+                + "/" + InventoryContract.PATH_SUMMARY, PRODUCT_SUMMARY);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS
+                + "/" + InventoryContract.PATH_SUMMARY + "/" + InventoryContract.PATH_SUPPLIERS,
+                PRODUCT_SUPPLIER_SUMMARY);
+
+        // The content URI of the form "products/#/adjust?delta=-1" will map to the integer code
+        // {@link #PRODUCT_ADJUST}. This URI is used to change the quantity of ONE product.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS
+                + "/#/" + InventoryContract.PATH_ADJUST, PRODUCT_ADJUST);
+
+        // The content URI of the form "products/#/movements" will map to the integer code
+        // {@link #PRODUCT_MOVEMENTS}. This URI is used to read the stock history of ONE product.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS
+                + "/#/" + InventoryContract.PATH_MOVEMENTS, PRODUCT_MOVEMENTS);
+
+        // The content URIs of the form "orders", "orders/#" and "orders/#/items" will map to
+        // the integer codes {@link #ORDERS}, {@link #ORDER_ID} and {@link #ORDER_ITEMS}. They
+        // are used to list the purchase orders, to read or close ONE order and to read its items.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ORDERS,
+                ORDERS);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ORDERS
+                + "/#", ORDER_ID);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ORDERS
+                + "/#/" + InventoryContract.PATH_ITEMS, ORDER_ITEMS);
+
+        // The content URIs of the form "suppliers", "suppliers/#" and "suppliers/#/products"
+        // will map to the integer codes {@link #SUPPLIERS}, {@link #SUPPLIER_ID} and
+        // {@link #SUPPLIER_PRODUCTS}. They are used to list the suppliers, to read or rename
+        // ONE supplier and to list its products.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_SUPPLIERS,
+                SUPPLIERS);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_SUPPLIERS
+                + "/#", SUPPLIER_ID);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_SUPPLIERS
+                + "/#/" + InventoryContract.PATH_PRODUCTS, SUPPLIER_PRODUCTS);
     }
 
     /** Database helper object */
     private InventoryDbHelper mDbHelper;
 
+    /** Store that holds the product pictures referenced by the products table */
+    private ProductImageStore mImageStore;
+
+    /** Merges the change notifications into one per window */
+    private ChangeNotifier mChangeNotifier;
+
+    /** Latency and row counts of the operations, per URI pattern */
+    private ProviderMetrics mMetrics;
+
+    /**
+     * URIs to notify once the batch running on the current thread commits, or null when the
+     * current thread is not inside {@link #applyBatch}.
+     */
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
+    /**
+     * Pictures of the batch running on the current thread, released when it ends, or null when
+     * the current thread is not inside {@link #applyBatch}.
+     */
+    private final ThreadLocal<BatchImages> mBatchImages = new ThreadLocal<>();
+
+    /**
+     * Pictures stored by a batch, and pictures the products it wrote no longer use.
+     */
+    private static class BatchImages {
+
+        /** Released if the batch rolls back, or if it commits without using them */
+        final Set<String> stored = new HashSet<>();
+
+        /** Released once the batch commits */
+        final Set<String> unused = new HashSet<>();
+    }
+
+    /**
+     * A query built by the provider, with the arguments of its "?" placeholders.
+     */
+    static class Query {
+
+        final String sql;
+        final String[] args;
+
+        Query(String sql, String[] args) {
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+
+    /**
+     * Low stock generation last seen, -1 if unknown. Low stock observers are only notified
+     * when a write moves the generation past it.
+     */
+    private long mLowStockGeneration = -1;
+
+    /** Guards {@link #mLowStockGeneration} */
+    private final Object mLowStockLock = new Object();
+
     @Override
     public boolean onCreate() {
-        mDbHelper = new InventoryDbHelper(getContext());
+        mDbHelper = new InventoryDbHelper(getContext(), readCheckpointPolicy(getContext()));
+        mImageStore = new ProductImageStore(getContext());
+        mChangeNotifier = new ChangeNotifier(getContext().getContentResolver(),
+                ChangeNotifier.DEFAULT_WINDOW_MILLIS);
+
+        // Metrics are recorded from the start in debug builds, and on demand in the others
+        boolean debuggable = (getContext().getApplicationInfo().flags
+                & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        mMetrics = new ProviderMetrics(URI_PATTERNS, PRODUCTS, debuggable);
         return true;
     }
 
+    /**
+     * Return the checkpoint policy of the database, read from the integer resources so a build
+     * or device configuration can tune it.
+     */
+    private static CheckpointPolicy readCheckpointPolicy(Context context) {
+        Resources resources = context.getResources();
+        return new CheckpointPolicy(resources.getInteger(R.integer.wal_autocheckpoint_pages),
+                resources.getInteger(R.integer.wal_max_kib) * 1024L,
+                resources.getInteger(R.integer.wal_journal_size_limit_kib) * 1024L);
+    }
+
+    /**
+     * Query the given URI, recording the metrics of the query if they are on. The rows are
+     * then counted before the cursor is returned, so the time includes running the query.
+     */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = mMetrics.start();
+        if (start == ProviderMetrics.DISABLED) {
+            return queryUri(uri, projection, selection, selectionArgs, sortOrder);
+        }
+        Cursor cursor = null;
+        try {
+            cursor = queryUri(uri, projection, selection, selectionArgs, sortOrder);
+            cursor.getCount();
+        } finally {
+            mMetrics.recordQuery(sUriMatcher.match(uri), start, cursor);
+        }
+        return cursor;
+    }
+
+    private Cursor queryUri(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -87,11 +578,18 @@ public class InventoryProvider extends ContentProvider {
         int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
-                // For the PRODUCTS code, query the products table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the products table.
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // For the PRODUCTS code, query the products with their supplier directly with
+                // the given projection, selection, selection arguments, and sort order. The
+                // cursor could contain multiple rows of the products table.
+                // If the URI asks for a page, use a keyset query instead.
+                if (isPageQuery(uri)) {
+                    Query page = buildProductPageQuery(uri, projection, selection,
+                            selectionArgs);
+                    cursor = database.rawQuery(page.sql, page.args);
+                } else {
+                    cursor = database.query(ProductEntry.VIEW_NAME, projection, selection,
+                            selectionArgs, null, null, sortOrder);
+                }
                 break;
             case PRODUCT_ID:
                 // For the PRODUCT_ID code, extract out the ID from the URI.
@@ -106,9 +604,85 @@ public class InventoryProvider extends ContentProvider {
 
                 // This will perform a query on the products table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
+                cursor = database.query(ProductEntry.VIEW_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case PRODUCT_SEARCH:
+                // Search results can change whenever any product changes, so they are
+                // refreshed on every change of the products
+                cursor = searchProducts(database, uri, projection);
+                cursor.setNotificationUri(getContext().getContentResolver(), ProductEntry.CONTENT_URI);
+                return cursor;
+            case PRODUCT_MOVEMENTS:
+                cursor = queryMovements(database, uri, projection, selection, selectionArgs);
+                break;
+            case PRODUCT_LOW_STOCK:
+                // Only notified when products are flagged or cleared
+                cursor = queryLowStock(database, projection, selection, selectionArgs, sortOrder);
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        LowStockEntry.NOTIFICATION_URI);
+                return cursor;
+            case PICTURES:
+                // The pictures change with the products
+                cursor = queryPictureKeys(database, uri);
+                cursor.setNotificationUri(getContext().getContentResolver(), ProductEntry.CONTENT_URI);
+                return cursor;
+            case PRODUCT_SUMMARY:
+                // The summary is one row kept up to date by triggers, it changes with the
+                // products
+                SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+                builder.setTables(SummaryEntry.TABLE_NAME);
+                builder.setProjectionMap(SUMMARY_PROJECTION_MAP);
+                builder.setStrict(true);
+                cursor = builder.query(database, projection, selection, selectionArgs, null, null,
+                        sortOrder);
+                cursor.setNotificationUri(getContext().getContentResolver(), ProductEntry.CONTENT_URI);
+                return cursor;
+            case PRODUCT_SUPPLIER_SUMMARY:
+                SQLiteQueryBuilder supplierBuilder = new SQLiteQueryBuilder();
+                supplierBuilder.setTables(SUPPLIER_SUMMARY_TABLES);
+                supplierBuilder.setProjectionMap(SUPPLIER_SUMMARY_PROJECTION_MAP);
+                supplierBuilder.setStrict(true);
+                cursor = supplierBuilder.query(database, projection, selection, selectionArgs,
+                        null, null, TextUtils.isEmpty(sortOrder)
+                                ? SummaryEntry.COLUMN_SUPPLIER + " COLLATE NOCASE" : sortOrder);
+                cursor.setNotificationUri(getContext().getContentResolver(), ProductEntry.CONTENT_URI);
+                return cursor;
+            case SUPPLIERS:
+            case SUPPLIER_ID:
+                // Suppliers are added and moved between by the product writes, so they are
+                // refreshed on every change of the products
+                if (match == SUPPLIER_ID) {
+                    selection = DatabaseUtils.concatenateWhere(SupplierEntry._ID + " = ?",
+                            selection);
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(
+                            new String[] { String.valueOf(ContentUris.parseId(uri)) },
+                            selectionArgs);
+                }
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null,
+                        TextUtils.isEmpty(sortOrder) ? SUPPLIERS_ORDER : sortOrder);
+                cursor.setNotificationUri(getContext().getContentResolver(), ProductEntry.CONTENT_URI);
+                return cursor;
+            case SUPPLIER_PRODUCTS:
+                Query supplierProducts = buildSupplierProductsQuery(uri, projection, selection,
+                        selectionArgs, sortOrder);
+                cursor = database.rawQuery(supplierProducts.sql, supplierProducts.args);
+                cursor.setNotificationUri(getContext().getContentResolver(), ProductEntry.CONTENT_URI);
+                return cursor;
+            case ORDERS:
+            case ORDER_ID:
+                cursor = queryOrders(database, uri, match == ORDER_ID, projection, selection,
+                        selectionArgs, sortOrder);
+                break;
+            case ORDER_ITEMS:
+                cursor = database.query(OrderItemEntry.TABLE_NAME, projection,
+                        DatabaseUtils.concatenateWhere(ORDER_ITEMS_SELECTION, selection),
+                        DatabaseUtils.appendSelectionArgs(
+                                new String[] { uri.getPathSegments().get(1) }, selectionArgs),
+                        null, null, TextUtils.isEmpty(sortOrder)
+                                ? OrderItemEntry.COLUMN_NAME + " COLLATE NOCASE" : sortOrder);
+                break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
@@ -122,146 +696,1133 @@ public class InventoryProvider extends ContentProvider {
         return cursor;
     }
 
-    @Override
-    public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PRODUCTS:
-                return insertProduct(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+    /**
+     * Query the purchase orders, newest first unless a sort order is given, or the single order
+     * of an order URI. The item count and total quantity are read from the items of each order.
+     */
+    private static Cursor queryOrders(SQLiteDatabase database, Uri uri, boolean single,
+                                      String[] projection, String selection,
+                                      String[] selectionArgs, String sortOrder) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(OrderEntry.TABLE_NAME);
+        builder.setProjectionMap(ORDERS_PROJECTION_MAP);
+        builder.setStrict(true);
+        if (single) {
+            builder.appendWhere(OrderEntry._ID + " = " + ContentUris.parseId(uri));
         }
+        return builder.query(database, projection, selection, selectionArgs, null, null,
+                TextUtils.isEmpty(sortOrder) ? ORDERS_ORDER : sortOrder);
     }
 
     /**
-     * Insert a product into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * Query the low stock products, emptiest first unless a sort order is given. The query
+     * starts from the low stock table, so it reads as many rows as there are flagged products.
      */
-    private Uri insertProduct(Uri uri, ContentValues values) {
-        // Check that the name is not null
-        String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Product requires a name");
-        }
+    private Cursor queryLowStock(SQLiteDatabase database, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
+        // Remember the generation the observers start from. It's read before the products, so
+        // a change in between is notified rather than missed.
+        recordLowStockGeneration(DatabaseUtils.longForQuery(database, SQL_LOW_STOCK_GENERATION,
+                null));
 
-        // Check that the gender is valid
-        Integer price = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
-        if (price == null) {
-            throw new IllegalArgumentException("Product requires a price");
+        Query lowStock = buildLowStockQuery(projection, selection, selectionArgs, sortOrder);
+        return database.rawQuery(lowStock.sql, lowStock.args);
+    }
+
+    /**
+     * Build the query of the low stock products, see {@link #queryLowStock}.
+     */
+    static Query buildLowStockQuery(String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder) {
+        return new Query(SQLiteQueryBuilder.buildQueryString(false, LOW_STOCK_TABLES, projection,
+                selection, null, null, TextUtils.isEmpty(sortOrder) ? LOW_STOCK_ORDER : sortOrder,
+                null), selectionArgs);
+    }
+
+    /**
+     * Build the query of the products of the supplier of the given URI, in name order unless a
+     * sort order is given.
+     */
+    static Query buildSupplierProductsQuery(Uri uri, String[] projection, String selection,
+                                            String[] selectionArgs, String sortOrder) {
+        return new Query(SQLiteQueryBuilder.buildQueryString(false, ProductEntry.VIEW_NAME,
+                projection, DatabaseUtils.concatenateWhere(SUPPLIER_PRODUCTS_SELECTION, selection),
+                null, null, TextUtils.isEmpty(sortOrder)
+                        ? NAME_NOCASE + ", " + ProductEntry._ID : sortOrder, null),
+                DatabaseUtils.appendSelectionArgs(
+                        new String[] { uri.getPathSegments().get(1) }, selectionArgs));
+    }
+
+    /**
+     * Record a low stock generation read from the database. Return true if it is newer than
+     * the last one recorded, that is if products were flagged or cleared since.
+     */
+    private boolean recordLowStockGeneration(long generation) {
+        synchronized (mLowStockLock) {
+            if (generation <= mLowStockGeneration) {
+                return false;
+            }
+            mLowStockGeneration = generation;
+            return true;
         }
+    }
 
-        // If the weight is provided, check that it's greater than or equal to 0 kg
-        Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-        if (quantity != null && quantity < 0) {
-            throw new IllegalArgumentException("Product requires valid quantity");}
+    /**
+     * Notify the low stock observers if products were flagged or cleared since the last check.
+     * Must be called once the write has committed.
+     */
+    private void notifyLowStockIfChanged() {
+        long generation = DatabaseUtils.longForQuery(mDbHelper.getReadableDatabase(),
+                SQL_LOW_STOCK_GENERATION, null);
+        if (recordLowStockGeneration(generation)) {
+            mChangeNotifier.notifyLowStockChange();
+        }
+    }
 
-        // If the weight is provided, check that it's greater than or equal to 0 kg
-        String supplier = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
-        if (supplier == null) {
-            throw new IllegalArgumentException("Product requires a supplier");}
+    /**
+     * Query the stock movements of the product of a movements URI, oldest first, within the
+     * time bounds given by the URI. The movements change with their product, so notifications
+     * of the product URI also reach this URI.
+     */
+    private static Cursor queryMovements(SQLiteDatabase database, Uri uri, String[] projection,
+                                         String selection, String[] selectionArgs) {
+        String movementsSelection = MOVEMENTS_SELECTION;
+        List<String> movementsArgs = new ArrayList<>();
+        movementsArgs.add(uri.getPathSegments().get(1));
 
+        String from = uri.getQueryParameter(StockMovementEntry.QUERY_PARAMETER_FROM);
+        if (from != null) {
+            movementsSelection += " AND " + StockMovementEntry.COLUMN_CREATED_AT + " >= ?";
+            movementsArgs.add(String.valueOf(parseId(from)));
+        }
+        String to = uri.getQueryParameter(StockMovementEntry.QUERY_PARAMETER_TO);
+        if (to != null) {
+            movementsSelection += " AND " + StockMovementEntry.COLUMN_CREATED_AT + " < ?";
+            movementsArgs.add(String.valueOf(parseId(to)));
+        }
 
-        // Get writeable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        return database.query(StockMovementEntry.TABLE_NAME, projection,
+                DatabaseUtils.concatenateWhere(movementsSelection, selection),
+                DatabaseUtils.appendSelectionArgs(
+                        movementsArgs.toArray(new String[movementsArgs.size()]), selectionArgs),
+                null, null, MOVEMENTS_ORDER);
+    }
 
-        // Insert the new product with the given values
-        long id = database.insert(ProductEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+    /**
+     * Query the distinct keys of the pictures in use, in key order, starting after the key and
+     * up to the limit given by the URI.
+     */
+    private static Cursor queryPictureKeys(SQLiteDatabase database, Uri uri) {
+        String selection = ProductEntry.COLUMN_PRODUCT_IMAGE_KEY + " IS NOT NULL";
+        String[] selectionArgs = null;
+        String afterKey = uri.getQueryParameter(PictureEntry.QUERY_PARAMETER_AFTER_KEY);
+        if (afterKey != null) {
+            selection += " AND " + ProductEntry.COLUMN_PRODUCT_IMAGE_KEY + " > ?";
+            selectionArgs = new String[] { afterKey };
         }
 
-        // Notify all listeners that the data has changed for the product content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        String limit = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null && parseId(limit) <= 0) {
+            throw new IllegalArgumentException("Pictures require a positive limit");
+        }
 
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
+        return database.query(true, ProductEntry.TABLE_NAME,
+                new String[] { ProductEntry.COLUMN_PRODUCT_IMAGE_KEY }, selection, selectionArgs,
+                null, null, ProductEntry.COLUMN_PRODUCT_IMAGE_KEY, limit);
     }
 
-    @Override
-    public int update(Uri uri, ContentValues contentValues, String selection,
-                      String[] selectionArgs) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PRODUCTS:
-                return updateProduct(uri, contentValues, selection, selectionArgs);
-            case PRODUCT_ID:
-                // For the PRODUCT_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updateProduct(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
-        }
+    /**
+     * Return true if the URI has any of the page query parameters.
+     */
+    private static boolean isPageQuery(Uri uri) {
+        return uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT) != null
+                || uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID) != null
+                || uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_UNTIL_ID) != null;
     }
 
     /**
-     * Update products in the database with the given content values. Apply the changes to the rows
-     * specified in the selection and selection arguments (which could be 0 or 1 or more products).
-     * Return the number of rows that were successfully updated.
+     * Build the query of one page of products in (name, _id) order. The bounds are applied as
+     * keyset conditions rather than an OFFSET, so every page costs the same no matter how deep
+     * it is: the name index is entered at the previous page's last key and read for "limit" rows.
      */
-    private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        // If the {@link ProductEntry#COLUMN_PRODUCT_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
-            String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Product requires a name");
+    static Query buildProductPageQuery(Uri uri, String[] projection, String selection,
+                                       String[] selectionArgs) {
+        StringBuilder where = new StringBuilder();
+        List<String> whereArgs = new ArrayList<>();
+        if (selection != null) {
+            where.append('(').append(selection).append(')');
+            if (selectionArgs != null) {
+                Collections.addAll(whereArgs, selectionArgs);
             }
         }
 
-        // check that the price value is valid.
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
-            Integer price = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
-            if (price == null) {
-                throw new IllegalArgumentException("Product requires a price");
+        // Products strictly after the last product of the previous page. The first comparison
+        // bounds the index range, the second one skips the products already shown with the
+        // same name.
+        String afterName = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_NAME);
+        String afterId = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID);
+        if (afterName != null && afterId != null) {
+            if (where.length() != 0) {
+                where.append(" AND ");
             }
+            where.append(NAME_NOCASE + " >= ? AND (" + NAME_NOCASE + " > ? OR "
+                    + ProductEntry._ID + " > ?)");
+            whereArgs.add(afterName);
+            whereArgs.add(afterName);
+            whereArgs.add(String.valueOf(parseId(afterId)));
         }
 
-        // check that the quantity value is valid.
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
-            Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-            if (quantity == null) {
-                throw new IllegalArgumentException("Product requires a quantity");
+        // Products up to and including the last product of this page
+        String untilName = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_UNTIL_NAME);
+        String untilId = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_UNTIL_ID);
+        if (untilName != null && untilId != null) {
+            if (where.length() != 0) {
+                where.append(" AND ");
             }
+            where.append(NAME_NOCASE + " <= ? AND (" + NAME_NOCASE + " < ? OR "
+                    + ProductEntry._ID + " <= ?)");
+            whereArgs.add(untilName);
+            whereArgs.add(untilName);
+            whereArgs.add(String.valueOf(parseId(untilId)));
         }
 
-        // If the {@link ProductEntry#COLUMN Pro_WEIGHT} key is present,
-        // check that the weight value is valid.
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER)) {
-            // Check that the weight is greater than or equal to 0 kg
-            String supplier = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
-            if (supplier == null) {
-                throw new IllegalArgumentException("Product requires a quantity");
-            }
+        // Check that the limit is a positive number
+        String limit = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null && parseId(limit) <= 0) {
+            throw new IllegalArgumentException("Page requires a positive limit");
         }
 
-        // If there are no values to update, then don't try to update the database
-        if (values.size() == 0) {
-            return 0;
-        }
+        return new Query(SQLiteQueryBuilder.buildQueryString(false, ProductEntry.VIEW_NAME,
+                projection, where.length() == 0 ? null : where.toString(), null, null,
+                NAME_NOCASE + ", " + ProductEntry._ID, limit),
+                whereArgs.toArray(new String[whereArgs.size()]));
+    }
 
-        // Otherwise, get writeable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    /**
+     * Search the products with the full-text search table. Every word of the query is matched
+     * as a prefix. Products whose name matches all the words rank first, then products where
+     * the words match across the name, supplier and supplier email.
+     */
+    private Cursor searchProducts(SQLiteDatabase database, Uri uri, String[] projection) {
+        String query = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_SEARCH);
+        String limit = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            limit = String.valueOf(DEFAULT_SEARCH_LIMIT);
+        } else if (parseId(limit) <= 0) {
+            throw new IllegalArgumentException("Search requires a positive limit");
+        }
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
+        // Split the query into words, dropping everything the FTS query syntax would
+        // interpret (quotes, '*', '-', ':', ...)
+        StringBuilder nameMatch = new StringBuilder();
+        StringBuilder anyMatch = new StringBuilder();
+        if (query != null) {
+            for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+                if (word.isEmpty()) {
+                    continue;
+                }
+                // Upper case operators would be read as operators, the tokenizer folds ASCII
+                // case anyway
+                if (word.equals("OR") || word.equals("AND") || word.equals("NOT")
+                        || word.startsWith("NEAR")) {
+                    word = word.toLowerCase(Locale.US);
+                }
+                if (anyMatch.length() != 0) {
+                    nameMatch.append(' ');
+                    anyMatch.append(' ');
+                }
+                nameMatch.append(ProductEntry.COLUMN_PRODUCT_NAME).append(':').append(word).append('*');
+                anyMatch.append(word).append('*');
+            }
+        }
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        // Nothing to search for, return an empty cursor with the requested columns
+        if (anyMatch.length() == 0) {
+            return database.query(ProductEntry.VIEW_NAME, projection, "0", null,
+                    null, null, null);
         }
 
-        // Return the number of rows updated
-        return rowsUpdated;
+        String columns = projection == null ? "*" : TextUtils.join(", ", projection);
+        String sql = "SELECT " + columns + " FROM " + ProductEntry.VIEW_NAME
+                + " JOIN (SELECT docid, MIN(rank) AS rank FROM ("
+                + "SELECT docid, 0 AS rank FROM " + ProductEntry.SEARCH_TABLE_NAME
+                + " WHERE " + ProductEntry.SEARCH_TABLE_NAME + " MATCH ?"
+                + " UNION ALL "
+                + "SELECT docid, 1 AS rank FROM " + ProductEntry.SEARCH_TABLE_NAME
+                + " WHERE " + ProductEntry.SEARCH_TABLE_NAME + " MATCH ?"
+                + ") GROUP BY docid) AS matches ON " + ProductEntry._ID + " = matches.docid"
+                + " ORDER BY matches.rank, " + NAME_NOCASE + ", " + ProductEntry._ID
+                + " LIMIT " + parseId(limit);
+        return database.rawQuery(sql, new String[] { nameMatch.toString(), anyMatch.toString() });
+    }
+
+    /**
+     * Parse a number given as a query parameter.
+     */
+    private static long parseId(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number " + value);
+        }
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues contentValues) {
+        long start = mMetrics.start();
+        Uri result = null;
+        try {
+            result = insertUri(uri, contentValues);
+        } finally {
+            record(ProviderMetrics.INSERT, uri, start, result == null ? 0 : 1);
+        }
+        return result;
+    }
+
+    private Uri insertUri(Uri uri, ContentValues contentValues) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PRODUCTS:
+                return insertProduct(uri, contentValues);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Insert a product into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertProduct(Uri uri, ContentValues values) {
+        // Check that the values describe a valid product
+        validateProduct(values);
+
+        // Move the picture (if any) into the image store
+        boolean newPicture = values.containsKey(ProductEntry.COLUMN_PRODUCT_PICTURE);
+        if (!storePicture(values)) {
+            Log.e(LOG_TAG, "Failed to store picture for " + uri);
+            return null;
+        }
+        Set<String> newImageKeys = new HashSet<>();
+        addNewImageKey(newImageKeys, values, newPicture);
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // The product starts with no stock, its quantity is recorded as the first movement
+        Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 0);
+
+        // Insert the new product with the given values and its stock in one transaction
+        long id;
+        try {
+            database.beginTransaction();
+            try {
+                // The product refers to its supplier by id
+                SupplierResolver resolver = new SupplierResolver(database);
+                try {
+                    resolver.replaceSupplier(values);
+                } finally {
+                    resolver.close();
+                }
+
+                // Throw if the insertion fails: inside applyBatch the transaction is shared, and
+                // ending it here without marking it successful would roll back the whole batch
+                // with no error
+                id = database.insertOrThrow(ProductEntry.TABLE_NAME, null, values);
+
+                if (quantity != null && quantity != 0) {
+                    SQLiteStatement statement = database.compileStatement(SQL_INSERT_MOVEMENT);
+                    try {
+                        recordMovement(statement, id, quantity, StockMovementEntry.REASON_INITIAL);
+                    } finally {
+                        statement.close();
+                    }
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            // The product rolled back leaves the picture stored for it unused
+            unpinImages(newImageKeys);
+            releaseImages(database, newImageKeys);
+            throw e;
+        }
+        unpinImages(newImageKeys);
+
+        // Notify all listeners that the data has changed for the product content URI
+        notifyChange(uri);
+
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Check that the given values describe a valid new product, or throw an
+     * {@link IllegalArgumentException} explaining what is wrong.
+     */
+    private static void validateProduct(ContentValues values) {
+        String error = checkProduct(values);
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+    }
+
+    /**
+     * Return what is wrong with the given values for a new product, or null if they describe a
+     * valid product. Importers check their rows with it before handing them to the provider.
+     */
+    static String checkProduct(ContentValues values) {
+        // Check that the name is not null
+        String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
+        if (name == null) {
+            return "Product requires a name";
+        }
+
+        // Check that the gender is valid
+        Integer price = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
+        if (price == null) {
+            return "Product requires a price";
+        }
+
+        // If the weight is provided, check that it's greater than or equal to 0 kg
+        Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        if (quantity != null && quantity < 0) {
+            return "Product requires valid quantity";}
+
+        // If the weight is provided, check that it's greater than or equal to 0 kg
+        String supplier = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
+        if (supplier == null) {
+            return "Product requires a supplier";}
+
+        // If the reorder threshold is provided, check that it's greater than or equal to 0
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD)) {
+            Integer threshold = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD);
+            if (threshold == null || threshold < 0) {
+                return "Product requires a valid reorder threshold";
+            }
+        }
+
+        // If the target quantity is provided, check that it's greater than or equal to 0
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY)) {
+            Integer target = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY);
+            if (target == null || target < 0) {
+                return "Product requires a valid target quantity";
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = mMetrics.start();
+        int rows = 0;
+        try {
+            rows = bulkInsertUri(uri, values);
+        } finally {
+            record(ProviderMetrics.BULK_INSERT, uri, start, rows);
+        }
+        return rows;
+    }
+
+    private int bulkInsertUri(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        if (match == PRODUCT_UPSERT) {
+            return upsertProducts(values);
+        }
+        if (match != PRODUCTS) {
+            throw new IllegalArgumentException("Bulk insertion is not supported for " + uri);
+        }
+
+        // Validate every row before writing anything, so a bad row can't leave half a catalog
+        for (ContentValues row : values) {
+            validateProduct(row);
+        }
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Insert all the rows in one transaction with a single compiled statement, so the whole
+        // catalog costs one journal commit instead of one per product
+        int rowsInserted = 0;
+        Set<String> newImageKeys = new HashSet<>();
+        try {
+            database.beginTransaction();
+            try {
+                SQLiteStatement statement = database.compileStatement(SQL_INSERT_PRODUCT);
+                SQLiteStatement movementStatement = database.compileStatement(SQL_INSERT_MOVEMENT);
+                SupplierResolver resolver = new SupplierResolver(database);
+                try {
+                    for (ContentValues row : values) {
+                        boolean newPicture = row.containsKey(ProductEntry.COLUMN_PRODUCT_PICTURE);
+                        if (!storePicture(row)) {
+                            throw new IllegalArgumentException(
+                                    "Failed to store picture for " + uri);
+                        }
+                        addNewImageKey(newImageKeys, row, newPicture);
+                        resolver.replaceSupplier(row);
+                        statement.clearBindings();
+                        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+                            DatabaseUtils.bindObjectToProgram(statement, i + 1,
+                                    row.get(INSERT_COLUMNS[i]));
+                        }
+                        long id = statement.executeInsert();
+                        rowsInserted++;
+
+                        // The product starts with no stock, its quantity is its first movement
+                        Integer quantity = row.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+                        if (quantity != null && quantity != 0) {
+                            recordMovement(movementStatement, id, quantity,
+                                    StockMovementEntry.REASON_INITIAL);
+                        }
+                    }
+                } finally {
+                    statement.close();
+                    movementStatement.close();
+                    resolver.close();
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            // The products rolled back leave the pictures stored for them unused
+            unpinImages(newImageKeys);
+            releaseImages(database, newImageKeys);
+            throw e;
+        }
+        unpinImages(newImageKeys);
+
+        // Notify all listeners once for the whole catalog
+        if (rowsInserted != 0) {
+            notifyChange(uri);
+        }
+
+        // A big import may have grown the write-ahead log
+        mDbHelper.checkpointIfNeeded();
+
+        // Return the number of rows inserted
+        return rowsInserted;
+    }
+
+    /**
+     * Insert the given products, replacing the existing products with the same name (ignoring
+     * case) and supplier, all in one transaction. Return the number of products inserted or
+     * replaced.
+     */
+    private int upsertProducts(ContentValues[] values) {
+        // Validate every row before writing anything, so a bad row can't leave half a batch
+        for (ContentValues row : values) {
+            validateProduct(row);
+            if (row.containsKey(ProductEntry.COLUMN_PRODUCT_VERSION)) {
+                throw new IllegalArgumentException("Product version can't be written");
+            }
+        }
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int rowsWritten = 0;
+        Set<String> oldImageKeys = new HashSet<>();
+        Set<String> newImageKeys = new HashSet<>();
+        try {
+            database.beginTransaction();
+            try {
+                SQLiteStatement findStatement = database.compileStatement("SELECT "
+                        + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME + " WHERE "
+                        + UPSERT_SELECTION + " ORDER BY " + ProductEntry._ID + " LIMIT 1");
+                SQLiteStatement movementStatement = database.compileStatement(SQL_INSERT_MOVEMENT);
+                SupplierResolver resolver = new SupplierResolver(database);
+                try {
+                    for (ContentValues row : values) {
+                        boolean newPicture = row.containsKey(ProductEntry.COLUMN_PRODUCT_PICTURE);
+                        if (!storePicture(row)) {
+                            throw new IllegalArgumentException("Failed to store picture");
+                        }
+                        addNewImageKey(newImageKeys, row, newPicture);
+
+                        // The quantity is recorded as a movement, never written
+                        Integer quantity = row.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+                        row.remove(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+
+                        findStatement.bindString(1,
+                                row.getAsString(ProductEntry.COLUMN_PRODUCT_NAME));
+                        findStatement.bindString(2,
+                                row.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER));
+                        long id;
+                        try {
+                            id = findStatement.simpleQueryForLong();
+                        } catch (SQLiteDoneException e) {
+                            id = -1;
+                        }
+
+                        if (id == -1) {
+                            // A new product, it starts with no stock
+                            resolver.replaceSupplier(row);
+                            row.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 0);
+                            id = database.insertOrThrow(ProductEntry.TABLE_NAME, null, row);
+                            if (quantity != null && quantity != 0) {
+                                recordMovement(movementStatement, id, quantity,
+                                        StockMovementEntry.REASON_INITIAL);
+                            }
+                        } else {
+                            // Replace the existing product, keeping its picture unless the row has
+                            // one. It has the same supplier name already, so it only moves to
+                            // another supplier if the row gives an email.
+                            if (row.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL)) {
+                                resolver.replaceSupplier(row);
+                            } else {
+                                row.remove(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
+                            }
+                            String idSelection = ProductEntry._ID + "=?";
+                            String[] idArgs = new String[] { String.valueOf(id) };
+                            if (row.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY)) {
+                                oldImageKeys.addAll(queryImageKeys(database, idSelection, idArgs));
+                            }
+                            if (quantity != null) {
+                                recordCorrections(database, quantity, idSelection, idArgs);
+                            }
+                            updateAndIncrementVersion(database, row, idSelection, idArgs);
+                        }
+                        rowsWritten++;
+                    }
+                } finally {
+                    findStatement.close();
+                    movementStatement.close();
+                    resolver.close();
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            // The products rolled back leave the pictures stored for them unused
+            unpinImages(newImageKeys);
+            releaseImages(database, newImageKeys);
+            throw e;
+        }
+        unpinImages(newImageKeys);
+
+        releaseImages(database, oldImageKeys);
+
+        // Notify all listeners once for the whole batch
+        if (rowsWritten != 0) {
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+
+        // A big import may have grown the write-ahead log
+        mDbHelper.checkpointIfNeeded();
+        return rowsWritten;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection,
+                      String[] selectionArgs) {
+        long start = mMetrics.start();
+        int result = 0;
+        int rows = 0;
+        try {
+            result = updateUri(uri, contentValues, selection, selectionArgs);
+            rows = result;
+
+            // An adjustment returns the new quantity, or -1 if it was refused, not a row count
+            if (sUriMatcher.match(uri) == PRODUCT_ADJUST) {
+                rows = result < 0 ? 0 : 1;
+            }
+        } finally {
+            record(ProviderMetrics.UPDATE, uri, start, rows);
+        }
+        return result;
+    }
+
+    private int updateUri(Uri uri, ContentValues contentValues, String selection,
+                          String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PRODUCTS:
+                return updateProduct(uri, contentValues, selection, selectionArgs);
+            case PRODUCT_ID:
+                // For the PRODUCT_ID code, extract out the ID from the URI,
+                // so we know which row to update. Selection will be "_id=?" and selection
+                // arguments will be a String array containing the actual ID.
+                selection = ProductEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                return updateProduct(uri, contentValues, selection, selectionArgs);
+            case PRODUCT_ADJUST:
+                // The change is given by the values, or else by the query parameters
+                return adjustQuantity(uri, contentValues);
+            case ORDER_ID:
+                // The only change an order takes is its new status
+                return closeOrder(ContentUris.parseId(uri), contentValues);
+            case SUPPLIER_ID:
+                return renameSupplier(ContentUris.parseId(uri), contentValues);
+            default:
+                throw new IllegalArgumentException("Update is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Update products in the database with the given content values. Apply the changes to the rows
+     * specified in the selection and selection arguments (which could be 0 or 1 or more products).
+     * Every updated product gets a new version; if the URI gives the version the update was made
+     * from, products that changed since are left alone.
+     * Return the number of rows that were successfully updated.
+     */
+    private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // If the {@link ProductEntry#COLUMN_PRODUCT_NAME} key is present,
+        // check that the name value is not null.
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
+            String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
+            if (name == null) {
+                throw new IllegalArgumentException("Product requires a name");
+            }
+        }
+
+        // check that the price value is valid.
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
+            Integer price = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
+            if (price == null) {
+                throw new IllegalArgumentException("Product requires a price");
+            }
+        }
+
+        // check that the quantity value is valid.
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
+            Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            if (quantity == null || quantity < 0) {
+                throw new IllegalArgumentException("Product requires valid quantity");
+            }
+        }
+
+        // If the {@link ProductEntry#COLUMN Pro_WEIGHT} key is present,
+        // check that the weight value is valid.
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER)) {
+            // Check that the weight is greater than or equal to 0 kg
+            String supplier = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
+            if (supplier == null) {
+                throw new IllegalArgumentException("Product requires a quantity");
+            }
+        }
+
+        // check that the reorder threshold value is valid.
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD)) {
+            Integer threshold = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD);
+            if (threshold == null || threshold < 0) {
+                throw new IllegalArgumentException("Product requires a valid reorder threshold");
+            }
+        }
+
+        // check that the target quantity value is valid.
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY)) {
+            Integer target = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY);
+            if (target == null || target < 0) {
+                throw new IllegalArgumentException("Product requires a valid target quantity");
+            }
+        }
+
+        // The version is only changed by the provider
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_VERSION)) {
+            throw new IllegalArgumentException("Product version can't be written");
+        }
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // An update made from a known version only applies to the products still at it
+        String expectedVersion = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_EXPECTED_VERSION);
+        if (expectedVersion != null) {
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    ProductEntry.COLUMN_PRODUCT_VERSION + " = ?");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    new String[] { String.valueOf(parseId(expectedVersion)) });
+        }
+
+        // Move the new picture (if any) into the image store
+        boolean newPicture = values.containsKey(ProductEntry.COLUMN_PRODUCT_PICTURE);
+        if (!storePicture(values)) {
+            Log.e(LOG_TAG, "Failed to store picture for " + uri);
+            return 0;
+        }
+        Set<String> newImageKeys = new HashSet<>();
+        addNewImageKey(newImageKeys, values, newPicture);
+
+        // Otherwise, get writeable database to update the data
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // A new quantity is not written over the old one: it is recorded as the movements that
+        // bring each product to it
+        Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        values.remove(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+
+        Set<String> oldImageKeys = null;
+        int rowsUpdated = 0;
+        database.beginTransaction();
+        try {
+            // Remember the pictures being replaced, so they can be released after the update
+            if (values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY)) {
+                oldImageKeys = queryImageKeys(database, selection, selectionArgs);
+            }
+
+            // The corrections go first: they don't change the version, so the update below
+            // still selects the same products
+            if (quantity != null) {
+                rowsUpdated = recordCorrections(database, quantity, selection, selectionArgs);
+            }
+
+            // Perform the update on the database and get the number of rows affected. A new
+            // supplier name or email moves the products to that supplier instead.
+            if (values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER)
+                    || values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL)) {
+                rowsUpdated = Math.max(rowsUpdated,
+                        updateSupplier(database, values, selection, selectionArgs));
+            } else if (values.size() != 0) {
+                rowsUpdated = Math.max(rowsUpdated,
+                        updateAndIncrementVersion(database, values, selection, selectionArgs));
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            unpinImages(newImageKeys);
+        }
+
+        if (oldImageKeys != null) {
+            releaseImages(database, oldImageKeys);
+        }
+
+        // A refused update leaves its new picture unused
+        if (rowsUpdated == 0) {
+            releaseImages(database, newImageKeys);
+        }
+
+        // If 1 or more rows were updated, then notify all listeners that the data at the
+        // given URI has changed
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+        }
+
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    /**
+     * Update the selected products with the given values, which name their new supplier, and
+     * increment their version. A supplier name or email left out of the values is kept, so
+     * each product moves to the supplier with its own missing half; the products are grouped
+     * by their current supplier and all moved in one statement. Return the number of products
+     * updated.
+     */
+    private static int updateSupplier(SQLiteDatabase database, ContentValues values,
+                                      String selection, String[] selectionArgs) {
+        boolean newName = values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
+        boolean newEmail = values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL);
+        String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
+        String email = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL);
+
+        ContentValues productValues = new ContentValues(values);
+        productValues.remove(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
+        productValues.remove(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL);
+        productValues.remove(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID);
+
+        // The current suppliers of the selected products, and the supplier each of them moves to
+        StringBuilder supplierCase = new StringBuilder("CASE "
+                + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID);
+        Cursor cursor = database.rawQuery("SELECT " + SupplierEntry._ID + ", "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_EMAIL
+                + " FROM " + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry._ID
+                + " IN (SELECT " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " FROM "
+                + ProductEntry.TABLE_NAME
+                + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection) + ")",
+                selectionArgs);
+        SupplierResolver resolver = new SupplierResolver(database);
+        try {
+            if (cursor.getCount() == 0) {
+                return 0;
+            }
+            while (cursor.moveToNext()) {
+                long supplierId = resolver.resolve(newName ? name : cursor.getString(1),
+                        newEmail ? email : cursor.getString(2));
+                supplierCase.append(" WHEN ").append(cursor.getLong(0))
+                        .append(" THEN ").append(supplierId);
+            }
+        } finally {
+            cursor.close();
+            resolver.close();
+        }
+        supplierCase.append(" ELSE ").append(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID)
+                .append(" END");
+
+        return updateAndIncrementVersion(database, productValues,
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " = " + supplierCase, selection,
+                selectionArgs);
+    }
+
+    /**
+     * Update the selected products with the given values and increment their version in the
+     * same statement. Return the number of products updated.
+     */
+    private static int updateAndIncrementVersion(SQLiteDatabase database, ContentValues values,
+                                                 String selection, String[] selectionArgs) {
+        return updateAndIncrementVersion(database, values, null, selection, selectionArgs);
+    }
+
+    /**
+     * Update the selected products with the given values and the given assignment, if not
+     * null, and increment their version in the same statement. Return the number of products
+     * updated.
+     */
+    private static int updateAndIncrementVersion(SQLiteDatabase database, ContentValues values,
+                                                 String assignment, String selection,
+                                                 String[] selectionArgs) {
+        StringBuilder sql = new StringBuilder("UPDATE " + ProductEntry.TABLE_NAME + " SET ");
+        List<Object> bindArgs = new ArrayList<>();
+        for (String column : values.keySet()) {
+            sql.append(column).append(" = ?, ");
+            bindArgs.add(values.get(column));
+        }
+        if (assignment != null) {
+            sql.append(assignment).append(", ");
+        }
+        sql.append(ProductEntry.COLUMN_PRODUCT_VERSION).append(" = ")
+                .append(ProductEntry.COLUMN_PRODUCT_VERSION).append(" + 1");
+        if (!TextUtils.isEmpty(selection)) {
+            sql.append(" WHERE ").append(selection);
+        }
+        if (selectionArgs != null) {
+            Collections.addAll(bindArgs, (Object[]) selectionArgs);
+        }
+
+        SQLiteStatement statement = database.compileStatement(sql.toString());
+        try {
+            for (int i = 0; i < bindArgs.size(); i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, bindArgs.get(i));
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Record the correction movements that bring the selected products to the given quantity.
+     * Return the number of products whose quantity changed.
+     */
+    private static int recordCorrections(SQLiteDatabase database, int quantity, String selection,
+                                         String[] selectionArgs) {
+        String sql = SQL_INSERT_CORRECTIONS;
+        if (!TextUtils.isEmpty(selection)) {
+            sql += " AND (" + selection + ")";
+        }
+
+        SQLiteStatement statement = database.compileStatement(sql);
+        try {
+            statement.bindLong(1, quantity);
+            statement.bindLong(2, System.currentTimeMillis());
+            statement.bindLong(3, quantity);
+            if (selectionArgs != null) {
+                for (int i = 0; i < selectionArgs.length; i++) {
+                    statement.bindString(i + 4, selectionArgs[i]);
+                }
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Record a stock movement of the product of an adjust URI. The delta and reason are taken
+     * from the values if they have a delta, otherwise from the query parameters. Return the new
+     * quantity, or -1 if there is no such product or the quantity would become negative.
+     */
+    private int adjustQuantity(Uri uri, ContentValues values) {
+        long id = Long.parseLong(uri.getPathSegments().get(1));
+
+        // Check that the delta is a valid number
+        long delta;
+        String reason;
+        if (values != null && values.containsKey(StockMovementEntry.COLUMN_DELTA)) {
+            Long valuesDelta = values.getAsLong(StockMovementEntry.COLUMN_DELTA);
+            if (valuesDelta == null) {
+                throw new IllegalArgumentException("Adjustment requires a valid delta");
+            }
+            delta = valuesDelta;
+            reason = values.getAsString(StockMovementEntry.COLUMN_REASON);
+        } else {
+            String deltaString = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_DELTA);
+            if (deltaString == null) {
+                throw new IllegalArgumentException("Adjustment requires a delta");
+            }
+            try {
+                delta = Long.parseLong(deltaString);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Adjustment requires a valid delta");
+            }
+            reason = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_REASON);
+        }
+        if (reason == null) {
+            reason = StockMovementEntry.REASON_CORRECTION;
+        }
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Record the movement and read back the quantity in the same transaction, so the
+        // returned quantity is the one written by this adjustment
+        int newQuantity = -1;
+        database.beginTransaction();
+        try {
+            SQLiteStatement statement = database.compileStatement(SQL_INSERT_MOVEMENT);
+            try {
+                if (recordMovement(statement, id, delta, reason)) {
+                    newQuantity = (int) DatabaseUtils.longForQuery(database,
+                            "SELECT " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                                    + " FROM " + ProductEntry.TABLE_NAME
+                                    + " WHERE " + ProductEntry._ID + "=?",
+                            new String[] { String.valueOf(id) });
+                }
+            } finally {
+                statement.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // If the quantity changed, notify all listeners of this product (and of the list)
+        if (newQuantity != -1) {
+            notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
+        }
+
+        return newQuantity;
+    }
+
+    /**
+     * Receive or cancel an open order, as given by the {@link OrderEntry#COLUMN_STATUS} of the
+     * values. Receiving it records the stock of all its items in the same transaction. Return
+     * 1, or 0 if there is no such order or it's not open.
+     */
+    private int closeOrder(long id, ContentValues values) {
+        String status = values == null ? null : values.getAsString(OrderEntry.COLUMN_STATUS);
+        if (values == null || values.size() != 1 || (!OrderEntry.STATUS_RECEIVED.equals(status)
+                && !OrderEntry.STATUS_CANCELLED.equals(status))) {
+            throw new IllegalArgumentException("Order requires a status of "
+                    + OrderEntry.STATUS_RECEIVED + " or " + OrderEntry.STATUS_CANCELLED);
+        }
+        boolean received = OrderEntry.STATUS_RECEIVED.equals(status);
+        long now = System.currentTimeMillis();
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Close the order and record its stock together, so an order can't be received twice
+        // or half received
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            SQLiteStatement close = database.compileStatement(SQL_CLOSE_ORDER);
+            try {
+                close.bindString(1, status);
+                close.bindLong(2, now);
+                close.bindLong(3, id);
+                rowsUpdated = close.executeUpdateDelete();
+            } finally {
+                close.close();
+            }
+
+            if (rowsUpdated != 0 && received) {
+                SQLiteStatement receive = database.compileStatement(SQL_RECEIVE_ORDER_ITEMS);
+                try {
+                    receive.bindLong(1, now);
+                    receive.bindLong(2, id);
+                    receive.executeUpdateDelete();
+                } finally {
+                    receive.close();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // Notify the listeners of the orders, and of the products if stock came in
+        if (rowsUpdated != 0) {
+            notifyChange(ContentUris.withAppendedId(OrderEntry.CONTENT_URI, id));
+            if (received) {
+                notifyChange(ProductEntry.CONTENT_URI);
+            }
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Rename a supplier, or change its email, with the values. It's a write of the supplier's
+     * single row: its products refer to it by id and show the new name, and a trigger updates
+     * their search rows. Return 1, or 0 if there is no such supplier.
+     */
+    private int renameSupplier(long id, ContentValues values) {
+        if (values == null || values.size() == 0) {
+            return 0;
+        }
+        for (String column : values.keySet()) {
+            if (!SupplierEntry.COLUMN_SUPPLIER_NAME.equals(column)
+                    && !SupplierEntry.COLUMN_SUPPLIER_EMAIL.equals(column)) {
+                throw new IllegalArgumentException("Supplier has no column " + column);
+            }
+        }
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_NAME)
+                && values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME) == null) {
+            throw new IllegalArgumentException("Supplier requires a name");
+        }
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int rowsUpdated;
+        try {
+            rowsUpdated = database.update(SupplierEntry.TABLE_NAME, values,
+                    SupplierEntry._ID + "=?", new String[] { String.valueOf(id) });
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("Supplier " + values + " already exists", e);
+        }
+
+        // The products show their supplier, so their listeners are notified too
+        if (rowsUpdated != 0) {
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Record one movement with a statement compiled from {@link #SQL_INSERT_MOVEMENT}. Return
+     * false if it was refused because the product doesn't exist or hasn't enough stock.
+     */
+    private static boolean recordMovement(SQLiteStatement statement, long productId, long delta,
+                                          String reason) {
+        statement.clearBindings();
+        statement.bindLong(1, delta);
+        statement.bindString(2, reason);
+        statement.bindLong(3, System.currentTimeMillis());
+        statement.bindLong(4, productId);
+        statement.bindLong(5, delta);
+        return statement.executeInsert() != -1;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long start = mMetrics.start();
+        int rows = 0;
+        try {
+            rows = deleteUri(uri, selection, selectionArgs);
+        } finally {
+            record(ProviderMetrics.DELETE, uri, start, rows);
+        }
+        return rows;
+    }
+
+    private int deleteUri(Uri uri, String selection, String[] selectionArgs) {
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
@@ -272,36 +1833,476 @@ public class InventoryProvider extends ContentProvider {
         switch (match) {
             case PRODUCTS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             case PRODUCT_ID:
                 // Delete a single row given by the ID in the URI
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case SUPPLIERS:
+                return deleteSuppliers(database, selection, selectionArgs);
+            case SUPPLIER_ID:
+                return deleteSuppliers(database, SupplierEntry._ID + "=?",
+                        new String[] { String.valueOf(ContentUris.parseId(uri)) });
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
+        // Remember the pictures of the deleted products, so they can be released afterwards
+        Set<String> imageKeys = queryImageKeys(database, selection, selectionArgs);
+        rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+        releaseImages(database, imageKeys);
+
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Delete the selected suppliers that have no products, the others are kept. Return the
+     * number of suppliers deleted.
+     */
+    private int deleteSuppliers(SQLiteDatabase database, String selection,
+                                String[] selectionArgs) {
+        int rowsDeleted = database.delete(SupplierEntry.TABLE_NAME,
+                DatabaseUtils.concatenateWhere(selection, UNUSED_SUPPLIERS_SELECTION),
+                selectionArgs);
+        // The supplier cursors are notified with the products
+        if (rowsDeleted != 0) {
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Replace the picture bytes in the given values (if present) by the key of the picture in the
+     * image store and its thumbnail. Return false if the picture could not be stored.
+     */
+    private boolean storePicture(ContentValues values) {
+        if (!values.containsKey(ProductEntry.COLUMN_PRODUCT_PICTURE)) {
+            return true;
+        }
+
+        byte[] picture = values.getAsByteArray(ProductEntry.COLUMN_PRODUCT_PICTURE);
+        values.remove(ProductEntry.COLUMN_PRODUCT_PICTURE);
+
+        // A null picture clears the product picture
+        if (picture == null) {
+            values.putNull(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY);
+            values.putNull(ProductEntry.COLUMN_PRODUCT_THUMBNAIL);
+            return true;
+        }
+
+        try {
+            // The picture stays pinned until the write ends, see unpinImages
+            values.put(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY, mImageStore.putPinned(picture));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to store picture", e);
+            return false;
+        }
+        if (!values.containsKey(ProductEntry.COLUMN_PRODUCT_THUMBNAIL)) {
+            values.put(ProductEntry.COLUMN_PRODUCT_THUMBNAIL,
+                    ProductImageStore.createThumbnail(picture));
+        }
+        return true;
+    }
+
+    /**
+     * Add the key of the picture stored for the given values to the keys, if a new picture was
+     * stored: the keys are unpinned once the transaction writing the values ends, and released
+     * if it fails. Inside a batch both wait until the batch ends.
+     */
+    private void addNewImageKey(Set<String> keys, ContentValues values, boolean newPicture) {
+        String imageKey = values.getAsString(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY);
+        if (newPicture && imageKey != null) {
+            boolean added = keys.add(imageKey);
+            BatchImages batchImages = mBatchImages.get();
+            if (batchImages != null) {
+                added = batchImages.stored.add(imageKey);
+            }
+
+            // Each key is unpinned once, so a picture stored again only keeps its first pin
+            if (!added) {
+                mImageStore.unpin(imageKey);
+            }
+        }
+    }
+
+    /**
+     * Unpin the pictures stored for a write once its transaction has ended, so they can be
+     * released when no product refers to them. Inside a batch this waits until the batch ends.
+     */
+    private void unpinImages(Set<String> keys) {
+        if (mBatchImages.get() != null) {
+            return;
+        }
+        for (String key : keys) {
+            mImageStore.unpin(key);
+        }
+    }
+
+    /**
+     * Release the given pictures if no product refers to them any more. Inside a batch this
+     * waits until the batch ends: until it commits, the products it deleted or changed still
+     * count, and if it rolls back they are back with their pictures.
+     */
+    private void releaseImages(SQLiteDatabase database, Set<String> keys) {
+        BatchImages batchImages = mBatchImages.get();
+        if (batchImages != null) {
+            batchImages.unused.addAll(keys);
+        } else {
+            releaseUnreferencedImages(database, keys);
+        }
+    }
+
+    /**
+     * Return the distinct picture keys of the products matching the selection.
+     */
+    private Set<String> queryImageKeys(SQLiteDatabase database, String selection,
+                                       String[] selectionArgs) {
+        Set<String> keys = new HashSet<>();
+        String imageSelection = ProductEntry.COLUMN_PRODUCT_IMAGE_KEY + " IS NOT NULL";
+        if (selection != null) {
+            imageSelection = "(" + selection + ") AND " + imageSelection;
+        }
+
+        Cursor cursor = database.query(true, ProductEntry.TABLE_NAME,
+                new String[] { ProductEntry.COLUMN_PRODUCT_IMAGE_KEY }, imageSelection,
+                selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                keys.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return keys;
+    }
+
+    /**
+     * Delete the pictures that are no longer referenced by any product. Pictures are shared
+     * between products with identical images, so a key is only released once nothing uses it.
+     * The products are counted with the store locked, so a write storing the same picture
+     * meanwhile either pins it before the count or waits for the delete and stores it again.
+     */
+    private void releaseUnreferencedImages(final SQLiteDatabase database, Set<String> keys) {
+        ProductImageStore.References references = new ProductImageStore.References() {
+            @Override
+            public boolean isUsed(String key) {
+                return DatabaseUtils.queryNumEntries(database, ProductEntry.TABLE_NAME,
+                        ProductEntry.COLUMN_PRODUCT_IMAGE_KEY + "=?", new String[] { key }) != 0;
+            }
+        };
+        for (String key : keys) {
+            mImageStore.deleteIfUnused(key, references);
+        }
+    }
+
+    /**
+     * Apply all the operations in a single transaction. Change notifications are held back until
+     * the transaction commits and each URI is notified only once, so a batch costs one journal
+     * commit and one requery for the observers instead of one per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long start = mMetrics.start();
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        Set<Uri> pendingNotifications = new LinkedHashSet<>();
+        BatchImages batchImages = new BatchImages();
+        ContentProviderResult[] results;
+        boolean committed = false;
+        mPendingNotifications.set(pendingNotifications);
+        mBatchImages.set(batchImages);
+        try {
+            database.beginTransaction();
+            try {
+                // Each operation calls insert, update or delete, which join this transaction
+                results = super.applyBatch(operations);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            committed = true;
+        } finally {
+            mPendingNotifications.remove();
+            mBatchImages.remove();
+            unpinImages(batchImages.stored);
+
+            // Only now do the products show which pictures they use. A rolled back batch only
+            // leaves the pictures it stored unused.
+            if (committed) {
+                batchImages.unused.addAll(batchImages.stored);
+                releaseUnreferencedImages(database, batchImages.unused);
+            } else {
+                releaseUnreferencedImages(database, batchImages.stored);
+            }
+        }
+
+        // The batch is committed, hand its changes to the notifier
+        for (Uri uri : pendingNotifications) {
+            mChangeNotifier.notifyChange(uri);
+        }
+        if (!pendingNotifications.isEmpty()) {
+            notifyLowStockIfChanged();
+        }
+
+        // A burst of batches may have grown the write-ahead log
+        mDbHelper.checkpointIfNeeded();
+
+        // The time of the whole transaction, with the operations it ran
+        mMetrics.record(ProviderMetrics.BATCH, UriMatcher.NO_MATCH, start, operations.size());
+        return results;
+    }
+
+    /**
+     * Record the metrics of an operation on the given URI, if they are on.
+     */
+    private void record(int operation, Uri uri, long start, long rows) {
+        if (start != ProviderMetrics.DISABLED) {
+            mMetrics.record(operation, sUriMatcher.match(uri), start, rows);
+        }
+    }
+
+    /**
+     * Return the metrics as described in {@link Metrics}, after turning them on or off or
+     * before resetting them as given by the arg.
+     */
+    private Bundle getMetrics(String arg) {
+        if (Metrics.ARG_ENABLE.equals(arg) || Metrics.ARG_DISABLE.equals(arg)) {
+            mMetrics.setEnabled(Metrics.ARG_ENABLE.equals(arg));
+        }
+        Bundle result = mMetrics.toBundle();
+        result.putLong(Metrics.EXTRA_NOTIFICATIONS_REQUESTED, mChangeNotifier.getRequestedCount());
+        result.putLong(Metrics.EXTRA_NOTIFICATIONS_SENT, mChangeNotifier.getSentCount());
+        if (Metrics.ARG_RESET.equals(arg)) {
+            mMetrics.reset();
+            mChangeNotifier.resetCounts();
+        }
+        return result;
+    }
+
+    /**
+     * Generate the purchase orders as described in {@link OrderEntry#METHOD_GENERATE}, check
+     * the inventory summary as described in {@link SummaryEntry#METHOD_VERIFY}, return the
+     * metrics described in {@link Metrics}, or back up the database to the file named by arg,
+     * or restore it from that file, as described in {@link Backup}. A check reads every
+     * product, and a backup or a restore takes as long as copying the database, so they must
+     * not be called from the main thread.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (Metrics.METHOD_METRICS.equals(method)) {
+            return getMetrics(arg);
+        }
+        if (OrderEntry.METHOD_GENERATE.equals(method)) {
+            return generateOrders();
+        }
+        if (SummaryEntry.METHOD_VERIFY.equals(method)) {
+            Bundle result = new SummaryChecker(mDbHelper.getWritableDatabase())
+                    .verify(SummaryEntry.ARG_REPAIR.equals(arg));
+            if (result.getBoolean(SummaryEntry.EXTRA_REPAIRED)) {
+                notifyChange(ProductEntry.CONTENT_URI);
+            }
+            return result;
+        }
+        if (!Backup.METHOD_BACKUP.equals(method) && !Backup.METHOD_RESTORE.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        if (arg == null) {
+            throw new IllegalArgumentException(method + " requires the path of the backup file");
+        }
+
+        DatabaseBackup backup = new DatabaseBackup(mDbHelper,
+                mDbHelper.getDatabaseFile().getParentFile());
+        try {
+            if (Backup.METHOD_BACKUP.equals(method)) {
+                return backup.backup(new File(arg));
+            }
+            Bundle result = backup.restore(new File(arg));
+            // Every product may have changed, and the restored generation is unrelated to the
+            // one seen so far
+            synchronized (mLowStockLock) {
+                mLowStockGeneration = -1;
+            }
+            notifyChange(ProductEntry.CONTENT_URI);
+            notifyChange(OrderEntry.CONTENT_URI);
+            mChangeNotifier.notifyLowStockChange();
+            return result;
+        } catch (IOException e) {
+            throw new IllegalStateException(method + " of " + arg + " failed: " + e.getMessage(),
+                    e);
+        }
+    }
+
+    /**
+     * Order every low stock product up to its target quantity, one order per supplier, with
+     * two statements in one transaction: the first creates the orders from the products to
+     * order grouped by supplier, the second adds each product to the order of its supplier.
+     * Return the number of orders and items created.
+     */
+    private Bundle generateOrders() {
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int orderCount;
+        int itemCount = 0;
+        database.beginTransaction();
+        try {
+            // The orders about to be created are the ones after the last order
+            long lastOrderId = DatabaseUtils.longForQuery(database,
+                    "SELECT ifnull(max(" + OrderEntry._ID + "), 0) FROM " + OrderEntry.TABLE_NAME,
+                    null);
+
+            SQLiteStatement insertOrders = database.compileStatement(SQL_INSERT_ORDERS);
+            try {
+                insertOrders.bindLong(1, System.currentTimeMillis());
+                orderCount = insertOrders.executeUpdateDelete();
+            } finally {
+                insertOrders.close();
+            }
+
+            // The new orders have no items yet, so the products to order are the same
+            if (orderCount != 0) {
+                SQLiteStatement insertItems = database.compileStatement(SQL_INSERT_ORDER_ITEMS);
+                try {
+                    insertItems.bindLong(1, lastOrderId);
+                    itemCount = insertItems.executeUpdateDelete();
+                } finally {
+                    insertItems.close();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (orderCount != 0) {
+            notifyChange(OrderEntry.CONTENT_URI);
+        }
+        Log.i(LOG_TAG, "Generated " + orderCount + " orders of " + itemCount + " products");
+
+        Bundle result = new Bundle();
+        result.putInt(OrderEntry.EXTRA_ORDER_COUNT, orderCount);
+        result.putInt(OrderEntry.EXTRA_ITEM_COUNT, itemCount);
+        return result;
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. Notifications are merged
+     * by the {@link ChangeNotifier} into one per window, and inside {@link #applyBatch} they are
+     * only handed to it once the batch commits.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> pendingNotifications = mPendingNotifications.get();
+        if (pendingNotifications != null) {
+            pendingNotifications.add(uri);
+        } else {
+            mChangeNotifier.notifyChange(uri);
+            notifyLowStockIfChanged();
+        }
+    }
+
+    /**
+     * Open the export of the products, or a picture, as a read-only file. The export is written
+     * into a pipe on a background thread as the reader reads it.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Only reading is supported for " + uri);
+        }
+
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PRODUCT_EXPORT:
+                ProductExporter exporter = newExporter(uri);
+                return openPipeHelper(uri, exporter.getType(), null, exporter, mExportWriter);
+            case PICTURE_KEY:
+                File file = mImageStore.getFile(uri.getLastPathSegment());
+                if (file == null || !file.isFile()) {
+                    throw new FileNotFoundException("No picture for " + uri);
+                }
+                return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+            default:
+                throw new FileNotFoundException("Cannot open unknown URI " + uri);
+        }
+    }
+
+    /**
+     * Return the exporter for the format and options given by an export URI.
+     */
+    private ProductExporter newExporter(Uri uri) {
+        String format = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_FORMAT);
+        return new ProductExporter(mDbHelper.getReadableDatabase(), mImageStore,
+                format == null ? ProductEntry.FORMAT_CSV : format,
+                uri.getBooleanQueryParameter(ProductEntry.QUERY_PARAMETER_PICTURES, false));
+    }
+
+    /**
+     * Writes an export into the pipe returned to the reader. A reader that stops reading closes
+     * its end, and the write then fails.
+     */
+    private final PipeDataWriter<ProductExporter> mExportWriter =
+            new PipeDataWriter<ProductExporter>() {
+                @Override
+                public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                            Bundle opts, ProductExporter exporter) {
+                    // The pipe is closed by the caller once this returns
+                    try {
+                        exporter.write(new FileOutputStream(output.getFileDescriptor()));
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "Export of " + uri + " stopped", e);
+                    }
+                }
+            };
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
+            case PRODUCT_SEARCH:
+            case PRODUCT_UPSERT:
+            case PRODUCT_LOW_STOCK:
                 return ProductEntry.CONTENT_LIST_TYPE;
             case PRODUCT_ID:
+            case PRODUCT_ADJUST:
                 return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_MOVEMENTS:
+                return StockMovementEntry.CONTENT_LIST_TYPE;
+            case PRODUCT_SUMMARY:
+                return SummaryEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_SUPPLIER_SUMMARY:
+                return SummaryEntry.CONTENT_LIST_TYPE;
+            case PRODUCT_EXPORT:
+                return newExporter(uri).getType();
+            case PICTURES:
+                return PictureEntry.CONTENT_LIST_TYPE;
+            case ORDERS:
+                return OrderEntry.CONTENT_LIST_TYPE;
+            case ORDER_ID:
+                return OrderEntry.CONTENT_ITEM_TYPE;
+            case ORDER_ITEMS:
+                return OrderItemEntry.CONTENT_LIST_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
+            case SUPPLIER_PRODUCTS:
+                return ProductEntry.CONTENT_LIST_TYPE;
+            case PICTURE_KEY:
+                String extension = mImageStore.getFileExtension(uri.getLastPathSegment());
+                return extension == null ? null
+                        : MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Two-level cache of decoded product pictures, shared by the catalog list and the editor.
+ *
+ * Entries are keyed by product id, image key and variant (thumbnail or editor picture). The
+ * image key is the hash of the picture, so a new picture never hits an old entry and other
+ * changes to the product (a sale, a new price) leave its entries valid; the entries of old
+ * pictures and deleted products just age out. The first level is an in-memory LRU bounded in
+ * bytes; the second level keeps the bitmaps on disk compressed like the image store does, so
+ * the disk cache holds far more pictures than raw pixels would. The decoders make the bitmaps
+ * at the size they are shown, so a disk entry is much smaller and quicker to decode than the
+ * stored picture it was made from.
+ */
+public class ProductBitmapCache {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ProductBitmapCache.class.getSimpleName();
+
+    /** Variant for the small thumbnails of the catalog list */
+    public static final String VARIANT_THUMBNAIL = "thumbnail";
+
+    /** Variant for the picture shown in the editor */
+    public static final String VARIANT_PICTURE = "picture";
+
+    /** Name of the directory (inside the app cache directory) of the disk cache */
+    private static final String DISK_CACHE_DIRECTORY = "product_bitmaps";
+
+    /** Maximum size of the disk cache */
+    private static final long MAX_DISK_BYTES = 20 * 1024 * 1024;
+
+    /** Size of the buffer used to write the disk cache files */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Quality of the lossy disk cache files, above the pictures' own to add little loss */
+    private static final int DISK_QUALITY = 95;
+
+    /**
+     * Creates the bitmap on a cache miss, no bigger than it is shown. Runs on the image
+     * background thread.
+     */
+    public interface Decoder {
+        Bitmap decode();
+    }
+
+    /**
+     * Receives a bitmap loaded with {@link #load}. Runs on the UI thread.
+     */
+    public interface Callback {
+        void onBitmapLoaded(Bitmap bitmap);
+    }
+
+    private static ProductBitmapCache sInstance;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mDiskDirectory;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Bytes used by the disk cache, or -1 until the directory is first measured. Only used on
+     * the image background thread.
+     */
+    private long mDiskBytes = -1;
+
+    /**
+     * Return the cache of the app, creating it on first use.
+     */
+    public static synchronized ProductBitmapCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ProductBitmapCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ProductBitmapCache(Context context) {
+        // Use an eighth of the memory available to the app
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+        mDiskDirectory = new File(context.getCacheDir(), DISK_CACHE_DIRECTORY);
+    }
+
+    /**
+     * Return the bitmap if it is in memory, or null. Cheap enough for the UI thread.
+     */
+    public Bitmap getFromMemory(long productId, String imageKey, String variant) {
+        return mMemoryCache.get(cacheKey(productId, imageKey, variant));
+    }
+
+    /**
+     * Keep the bitmap in memory. Used for bitmaps that are cheap to make again (thumbnails), so
+     * they are not written to disk.
+     */
+    public void putInMemory(long productId, String imageKey, String variant, Bitmap bitmap) {
+        mMemoryCache.put(cacheKey(productId, imageKey, variant), bitmap);
+    }
+
+    /**
+     * Load the bitmap from memory, then from disk, then with the decoder, and hand it to the
+     * callback on the UI thread. The result is null if the decoder couldn't make it. Decoded
+     * bitmaps are kept in both levels of the cache.
+     */
+    public void load(final long productId, final String imageKey, final String variant,
+                     final Decoder decoder, final Callback callback) {
+        final String key = cacheKey(productId, imageKey, variant);
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            callback.onBitmapLoaded(bitmap);
+            return;
+        }
+
+        ProductImageEncoder.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = readFromDisk(key);
+                if (bitmap == null) {
+                    bitmap = decoder.decode();
+                    if (bitmap != null) {
+                        writeToDisk(key, bitmap);
+                    }
+                }
+                if (bitmap != null) {
+                    mMemoryCache.put(key, bitmap);
+                }
+
+                final Bitmap result = bitmap;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onBitmapLoaded(result);
+                    }
+                });
+            }
+        });
+    }
+
+    private static String cacheKey(long productId, String imageKey, String variant) {
+        return productId + "_" + imageKey + "_" + variant;
+    }
+
+    /**
+     * Decode the bitmap stored for the key, or return null.
+     */
+    private Bitmap readFromDisk(String key) {
+        File file = new File(mDiskDirectory, key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap == null) {
+            // A damaged entry is just a miss
+            Log.w(LOG_TAG, "Failed to decode " + file);
+            deleteFromDisk(file);
+            return null;
+        }
+
+        // Mark the file as recently used for the disk trimming
+        if (!file.setLastModified(System.currentTimeMillis())) {
+            Log.w(LOG_TAG, "Failed to touch " + file);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Store the bitmap compressed for the key, then trim the disk cache to its size.
+     */
+    private void writeToDisk(String key, Bitmap bitmap) {
+        if (!mDiskDirectory.isDirectory() && !mDiskDirectory.mkdirs()) {
+            return;
+        }
+        if (mDiskBytes < 0) {
+            mDiskBytes = measureDisk();
+        }
+
+        File file = new File(mDiskDirectory, key);
+        File temp = new File(mDiskDirectory, key + ".tmp");
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE);
+            boolean compressed;
+            try {
+                compressed = bitmap.compress(ProductImageEncoder.compressFormatFor(bitmap),
+                        DISK_QUALITY, out);
+            } finally {
+                out.close();
+            }
+            if (!compressed) {
+                throw new IOException("Cannot compress " + key);
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot move " + temp + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to write " + file, e);
+            if (temp.exists() && !temp.delete()) {
+                Log.w(LOG_TAG, "Failed to delete " + temp);
+            }
+            return;
+        }
+        mDiskBytes += file.length();
+
+        // The directory is only listed when the cache has outgrown its size
+        if (mDiskBytes > MAX_DISK_BYTES) {
+            trimDisk();
+        }
+    }
+
+    /**
+     * Delete a file of the disk cache, keeping the size of the cache up to date.
+     */
+    private void deleteFromDisk(File file) {
+        long length = file.length();
+        if (file.delete()) {
+            if (mDiskBytes >= 0) {
+                mDiskBytes -= length;
+            }
+        } else {
+            Log.w(LOG_TAG, "Failed to delete " + file);
+        }
+    }
+
+    /**
+     * Return the bytes used by the files of the disk cache.
+     */
+    private long measureDisk() {
+        File[] files = mDiskDirectory.listFiles();
+        long total = 0;
+        if (files != null) {
+            for (File file : files) {
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Delete the least recently used files until the disk cache fits in its size.
+     */
+    private void trimDisk() {
+        File[] files = mDiskDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        // Measure again, in case files went missing behind the cache's back
+        mDiskBytes = 0;
+        for (File file : files) {
+            mDiskBytes += file.length();
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (mDiskBytes <= MAX_DISK_BYTES) {
+                break;
+            }
+            deleteFromDisk(file);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Imports products from a CSV file, such as a catalog exported by a supplier.
+ *
+ * The first record names the columns, with the names of the {@link ProductEntry} columns:
+ * name, price, quantity, supplier, supplier_email, reorder_threshold and target_quantity;
+ * other columns are ignored. Products replace the existing products with the same name and supplier.
+ *
+ * The file is read one record at a time and written in batches of {@link #BATCH_SIZE} rows,
+ * one transaction each, so the memory used doesn't depend on the size of the file. Rows that
+ * are not valid products are skipped and reported.
+ */
+public class ProductCsvImporter {
+
+    /** Number of rows written per transaction */
+    public static final int BATCH_SIZE = 500;
+
+    /** Number of rejected rows reported in detail, the others are only counted */
+    public static final int MAX_REPORTED_REJECTIONS = 100;
+
+    /** Columns read from the file, the ones not marked optional are required */
+    private static final String[] COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL,
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD,
+            ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY};
+    private static final List<String> OPTIONAL_COLUMNS = Arrays.asList(
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL,
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD,
+            ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY);
+
+    /** Columns holding numbers */
+    private static final List<String> INTEGER_COLUMNS = Arrays.asList(
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD,
+            ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY);
+
+    /**
+     * Told after every batch written, on the importing thread.
+     */
+    public interface ProgressListener {
+        void onProgress(long bytesRead, int rowsImported, int rowsRejected);
+    }
+
+    /**
+     * A row that was not imported.
+     */
+    public static class Rejection {
+
+        /** Line of the file the row starts on, counting from 1 */
+        public final long line;
+
+        /** Why the row was not imported */
+        public final String reason;
+
+        Rejection(long line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Outcome of an import.
+     */
+    public static class Report {
+        public final int rowsImported;
+        public final int rowsRejected;
+
+        /** The first {@link #MAX_REPORTED_REJECTIONS} rejected rows */
+        public final List<Rejection> rejections;
+
+        Report(int rowsImported, int rowsRejected, List<Rejection> rejections) {
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+            this.rejections = Collections.unmodifiableList(rejections);
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+
+    public ProductCsvImporter(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Import the products of a UTF-8 CSV file. The stream is not closed. Interrupting the thread
+     * stops the import after the current batch; the batches already written stay.
+     *
+     * @throws IOException if the file can't be read or has no header naming the required columns
+     */
+    public Report importProducts(InputStream in, ProgressListener listener) throws IOException {
+        CountingInputStream countingIn = new CountingInputStream(in);
+        CsvReader reader = new CsvReader(new InputStreamReader(countingIn, "UTF-8"));
+        List<String> fields = new ArrayList<>(COLUMNS.length);
+
+        // Find the columns in the header
+        if (!reader.readRecord(fields)) {
+            throw new IOException("The file is empty");
+        }
+        int[] columnIndices = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            columnIndices[i] = indexOfColumn(fields, COLUMNS[i]);
+            if (columnIndices[i] == -1 && !OPTIONAL_COLUMNS.contains(COLUMNS[i])) {
+                throw new IOException("The file has no " + COLUMNS[i] + " column");
+            }
+        }
+
+        ContentValues[] batch = new ContentValues[BATCH_SIZE];
+        int batchSize = 0;
+        int rowsImported = 0;
+        int rowsRejected = 0;
+        List<Rejection> rejections = new ArrayList<>();
+
+        while (reader.readRecord(fields)) {
+            // Skip blank lines
+            if (fields.size() == 1 && fields.get(0).trim().isEmpty()) {
+                continue;
+            }
+
+            ContentValues values = new ContentValues();
+            String error = reader.isTruncated()
+                    ? "Row too long" : readProduct(fields, columnIndices, values);
+            if (error == null) {
+                // The same rules as the provider applies to new products
+                error = InventoryProvider.checkProduct(values);
+            }
+            if (error != null) {
+                rowsRejected++;
+                if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+                    rejections.add(new Rejection(reader.getRecordLine(), error));
+                }
+                continue;
+            }
+
+            batch[batchSize++] = values;
+            if (batchSize == BATCH_SIZE) {
+                rowsImported += writeBatch(batch, batchSize);
+                batchSize = 0;
+                if (listener != null) {
+                    listener.onProgress(countingIn.getCount(), rowsImported, rowsRejected);
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Import cancelled after "
+                            + rowsImported + " products");
+                }
+            }
+        }
+        if (batchSize != 0) {
+            rowsImported += writeBatch(batch, batchSize);
+        }
+        if (listener != null) {
+            listener.onProgress(countingIn.getCount(), rowsImported, rowsRejected);
+        }
+        return new Report(rowsImported, rowsRejected, rejections);
+    }
+
+    /**
+     * Write a batch of products in one transaction and return the number written.
+     */
+    private int writeBatch(ContentValues[] batch, int size) {
+        ContentValues[] rows = size == batch.length ? batch : Arrays.copyOf(batch, size);
+        int written = mContentResolver.bulkInsert(ProductEntry.UPSERT_URI, rows);
+        Arrays.fill(batch, null);
+        return written;
+    }
+
+    /**
+     * Read the product of a record into the values. Return what is wrong with the record, or
+     * null.
+     */
+    private static String readProduct(List<String> fields, int[] columnIndices,
+                                      ContentValues values) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            int index = columnIndices[i];
+            if (index == -1 || index >= fields.size()) {
+                continue;
+            }
+            String value = fields.get(index).trim();
+            if (value.isEmpty() && OPTIONAL_COLUMNS.contains(COLUMNS[i])) {
+                continue;
+            }
+            if (INTEGER_COLUMNS.contains(COLUMNS[i])) {
+                try {
+                    values.put(COLUMNS[i], Integer.parseInt(value));
+                } catch (NumberFormatException e) {
+                    return "Invalid " + COLUMNS[i] + " " + value;
+                }
+            } else {
+                values.put(COLUMNS[i], value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the index of the header field naming the given column, ignoring case, or -1.
+     */
+    private static int indexOfColumn(List<String> header, String column) {
+        for (int i = 0; i < header.size(); i++) {
+            if (header.get(i).trim().toLowerCase(Locale.US).equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Counts the bytes read through it, for the progress.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
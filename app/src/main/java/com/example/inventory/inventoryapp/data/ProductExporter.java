@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.JsonWriter;
+import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes all the products to a stream as CSV or JSON, for the export URI of the provider.
+ *
+ * The products are read in pages of {@link #PAGE_SIZE} in id order, each page starting after
+ * the last id of the previous one, and written as they are read; pictures and thumbnails are
+ * never read. The memory used is the same for any number of products. Pages are separate
+ * reads, so a product changed during the export is written as it is when its page is read.
+ */
+class ProductExporter {
+
+    /** Number of products read per query */
+    static final int PAGE_SIZE = 500;
+
+    /** Columns of the products written, in order */
+    private static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL,
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD,
+            ProductEntry.COLUMN_PRODUCT_TARGET_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_KEY};
+
+    // Indices of the columns in COLUMNS
+    private static final int ID_INDEX = 0;
+    private static final int IMAGE_KEY_INDEX = 8;
+
+    /** Number of columns written, the image key is only used for the picture file */
+    private static final int WRITTEN_COLUMNS = IMAGE_KEY_INDEX;
+
+    /** Columns holding numbers, written as JSON numbers */
+    private static final boolean[] NUMERIC = { true, false, true, true, false, false, true, true };
+
+    private final SQLiteDatabase mDatabase;
+    private final ProductImageStore mImageStore;
+    private final boolean mJson;
+    private final boolean mPictures;
+
+    /**
+     * Constructs a new {@link ProductExporter}.
+     *
+     * @param format   {@link ProductEntry#FORMAT_CSV} or {@link ProductEntry#FORMAT_JSON}
+     * @param pictures true to add the {@link ProductEntry#COLUMN_EXPORT_PICTURE_FILE} field
+     */
+    ProductExporter(SQLiteDatabase database, ProductImageStore imageStore, String format,
+                    boolean pictures) {
+        if (!ProductEntry.FORMAT_CSV.equals(format) && !ProductEntry.FORMAT_JSON.equals(format)) {
+            throw new IllegalArgumentException("Unknown export format " + format);
+        }
+        mDatabase = database;
+        mImageStore = imageStore;
+        mJson = ProductEntry.FORMAT_JSON.equals(format);
+        mPictures = pictures;
+    }
+
+    /**
+     * Return the MIME type of the export.
+     */
+    String getType() {
+        return mJson ? ProductEntry.JSON_TYPE : ProductEntry.CSV_TYPE;
+    }
+
+    /**
+     * Write all the products to the stream, in UTF-8. The stream is flushed but not closed.
+     */
+    void write(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        JsonWriter jsonWriter = null;
+        if (mJson) {
+            jsonWriter = new JsonWriter(writer);
+            jsonWriter.beginArray();
+        } else {
+            writeCsvHeader(writer);
+        }
+
+        String[] values = new String[WRITTEN_COLUMNS + 1];
+        long lastId = -1;
+        int count;
+        do {
+            Cursor cursor = mDatabase.query(ProductEntry.VIEW_NAME, COLUMNS,
+                    ProductEntry._ID + " > ?", new String[] { String.valueOf(lastId) },
+                    null, null, ProductEntry._ID, String.valueOf(PAGE_SIZE));
+            try {
+                count = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(ID_INDEX);
+                    for (int i = 0; i < WRITTEN_COLUMNS; i++) {
+                        values[i] = cursor.getString(i);
+                    }
+                    values[WRITTEN_COLUMNS] = mPictures
+                            ? pictureFile(cursor.getString(IMAGE_KEY_INDEX)) : null;
+
+                    if (mJson) {
+                        writeJsonProduct(jsonWriter, values);
+                    } else {
+                        writeCsvProduct(writer, values);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (count == PAGE_SIZE);
+
+        if (mJson) {
+            jsonWriter.endArray();
+            jsonWriter.flush();
+        } else {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Return the name of the file the picture with the given key is exported as, or an empty
+     * string if there is no picture.
+     */
+    private String pictureFile(String key) {
+        if (key == null) {
+            return "";
+        }
+        String extension = mImageStore.getFileExtension(key);
+        return extension == null ? key : key + "." + extension;
+    }
+
+    private void writeCsvHeader(Writer writer) throws IOException {
+        for (int i = 0; i < WRITTEN_COLUMNS; i++) {
+            if (i != 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        if (mPictures) {
+            writer.write(',');
+            writer.write(ProductEntry.COLUMN_EXPORT_PICTURE_FILE);
+        }
+        writer.write("\r\n");
+    }
+
+    private void writeCsvProduct(Writer writer, String[] values) throws IOException {
+        int columns = mPictures ? WRITTEN_COLUMNS + 1 : WRITTEN_COLUMNS;
+        for (int i = 0; i < columns; i++) {
+            if (i != 0) {
+                writer.write(',');
+            }
+            writeCsvField(writer, values[i]);
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Write a field as RFC 4180 CSV: quoted, with doubled quotes, if it holds a comma, a quote
+     * or a line break. Null is written as an empty field.
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    private void writeJsonProduct(JsonWriter jsonWriter, String[] values) throws IOException {
+        jsonWriter.beginObject();
+        for (int i = 0; i < WRITTEN_COLUMNS; i++) {
+            jsonWriter.name(COLUMNS[i]);
+            if (values[i] == null) {
+                jsonWriter.nullValue();
+            } else if (NUMERIC[i]) {
+                jsonWriter.value(Long.parseLong(values[i]));
+            } else {
+                jsonWriter.value(values[i]);
+            }
+        }
+        if (mPictures) {
+            jsonWriter.name(ProductEntry.COLUMN_EXPORT_PICTURE_FILE).value(values[WRITTEN_COLUMNS]);
+        }
+        jsonWriter.endObject();
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.util.Log;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Decodes pictures picked by the user without ever holding the full resolution photo.
+ *
+ * The picture is streamed from the {@link ContentResolver} twice: once to read its bounds, then
+ * to decode it with the largest power of two sample size that keeps it at least as big as the
+ * requested size. The EXIF orientation is applied to the result. Decoding is slow, never call
+ * it from the UI thread; the thread may be interrupted to cancel it.
+ */
+public class ProductImageDecoder {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ProductImageDecoder.class.getSimpleName();
+
+    private final ContentResolver mContentResolver;
+
+    /**
+     * Constructs a new {@link ProductImageDecoder}.
+     *
+     * @param contentResolver used to open the pictures
+     */
+    public ProductImageDecoder(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Decode the picture at the given URI so that its largest side is about targetSize pixels
+     * (never less, unless the picture itself is smaller). Return null if it is not a picture.
+     *
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    public Bitmap decode(Uri uri, int targetSize) throws IOException {
+        // Read the bounds first, this doesn't allocate any pixels
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        checkInterrupted();
+
+        options.inSampleSize = sampleSizeFor(Math.max(options.outWidth, options.outHeight),
+                targetSize);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = decodeStream(uri, options);
+        if (bitmap == null) {
+            return null;
+        }
+        if (Thread.interrupted()) {
+            bitmap.recycle();
+            throw new InterruptedIOException("Decoding " + uri + " was cancelled");
+        }
+
+        return rotate(bitmap, readRotation(uri));
+    }
+
+    /**
+     * Return the largest power of two sample size that keeps the largest side at least as big
+     * as the target.
+     */
+    static int sampleSizeFor(int largestSide, int targetSize) {
+        int sampleSize = 1;
+        while (largestSide / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private Bitmap decodeStream(Uri uri, BitmapFactory.Options options) throws IOException {
+        InputStream in = mContentResolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException("Decoding was cancelled");
+        }
+    }
+
+    /**
+     * Return the clockwise rotation, in degrees, that makes the picture upright.
+     */
+    private int readRotation(Uri uri) {
+        // Nougat can read the EXIF data of any stream
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            try {
+                InputStream in = mContentResolver.openInputStream(uri);
+                if (in != null) {
+                    try {
+                        return rotationFor(new ExifInterface(in).getAttributeInt(
+                                ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+                    } finally {
+                        in.close();
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to read the orientation of " + uri, e);
+            }
+            return 0;
+        }
+
+        // Before that, files can be read by path
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            try {
+                return rotationFor(new ExifInterface(uri.getPath()).getAttributeInt(
+                        ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to read the orientation of " + uri, e);
+                return 0;
+            }
+        }
+
+        // and the media store keeps the orientation of its pictures
+        Cursor cursor = null;
+        try {
+            cursor = mContentResolver.query(uri,
+                    new String[]{MediaStore.Images.ImageColumns.ORIENTATION}, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getInt(0);
+            }
+        } catch (RuntimeException e) {
+            // Not every provider knows about this column
+            Log.w(LOG_TAG, "Failed to query the orientation of " + uri, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return 0;
+    }
+
+    private static int rotationFor(int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Rotate the bitmap clockwise by the given degrees, recycling the original.
+     */
+    private static Bitmap rotate(Bitmap bitmap, int degrees) {
+        if (degrees % 360 == 0) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
+                matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp.data;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Turns the picture chosen in the editor into the compact bytes handed to the provider.
+ *
+ * Pictures are scaled down so their largest side is at most the configured maximum, then
+ * encoded lossy at the configured quality: JPEG for opaque pictures, WebP for pictures with
+ * transparency. Small pictures keep the lossless PNG encoding of {@link DbBitmapUtility}.
+ *
+ * Encoding a photo takes far too long for the UI thread, so it runs on {@link #getExecutor()}.
+ */
+public class ProductImageEncoder {
+
+    /** Largest side, in pixels, of the stored pictures by default */
+    public static final int DEFAULT_MAX_DIMENSION = 1024;
+
+    /** Quality of the lossy encoding by default */
+    public static final int DEFAULT_QUALITY = 85;
+
+    /** Pictures whose sides are all at most this big are stored as lossless PNG */
+    private static final int SMALL_PICTURE_DIMENSION = 256;
+
+    /** Single background thread shared by all the image work of the app */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * The encoded picture and its thumbnail.
+     */
+    public static class EncodedImage {
+
+        /** Bytes to store as {@link InventoryContract.ProductEntry#COLUMN_PRODUCT_PICTURE} */
+        public final byte[] picture;
+
+        /** Bytes to store as {@link InventoryContract.ProductEntry#COLUMN_PRODUCT_THUMBNAIL} */
+        public final byte[] thumbnail;
+
+        EncodedImage(byte[] picture, byte[] thumbnail) {
+            this.picture = picture;
+            this.thumbnail = thumbnail;
+        }
+    }
+
+    private final int mMaxDimension;
+    private final int mQuality;
+
+    /**
+     * Constructs a new {@link ProductImageEncoder} with the default size and quality.
+     */
+    public ProductImageEncoder() {
+        this(DEFAULT_MAX_DIMENSION, DEFAULT_QUALITY);
+    }
+
+    /**
+     * Constructs a new {@link ProductImageEncoder}.
+     *
+     * @param maxDimension Largest side, in pixels, of the encoded pictures
+     * @param quality      Quality (0-100) of the lossy encoding
+     */
+    public ProductImageEncoder(int maxDimension, int quality) {
+        mMaxDimension = maxDimension;
+        mQuality = quality;
+    }
+
+    /**
+     * Return the background executor that runs the image work.
+     */
+    public static ExecutorService getExecutor() {
+        return sExecutor;
+    }
+
+    /**
+     * Scale and encode the given bitmap. The bitmap is left untouched. This is slow, never call
+     * it from the UI thread.
+     */
+    public EncodedImage encode(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+
+        // Small pictures are cheap enough to keep lossless
+        if (width <= SMALL_PICTURE_DIMENSION && height <= SMALL_PICTURE_DIMENSION) {
+            return new EncodedImage(DbBitmapUtility.getBytes(bitmap),
+                    ProductImageStore.createThumbnail(bitmap));
+        }
+
+        Bitmap scaled = bitmap;
+        float scale = (float) mMaxDimension / Math.max(width, height);
+        if (scale < 1f) {
+            scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.max(1, Math.round(width * scale)),
+                    Math.max(1, Math.round(height * scale)), true);
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        scaled.compress(compressFormatFor(scaled), mQuality, stream);
+        byte[] thumbnail = ProductImageStore.createThumbnail(scaled);
+        if (scaled != bitmap) {
+            scaled.recycle();
+        }
+        return new EncodedImage(stream.toByteArray(), thumbnail);
+    }
+
+    /**
+     * JPEG can't keep transparency. WebP can, but transparent WebP only decodes from Jelly Bean
+     * MR2, so older platforms keep those pictures as PNG.
+     */
+    static Bitmap.CompressFormat compressFormatFor(Bitmap bitmap) {
+        if (!bitmap.hasAlpha()) {
+            return Bitmap.CompressFormat.JPEG;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return Bitmap.CompressFormat.WEBP;
+        }
+        return Bitmap.CompressFormat.PNG;
+    }
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Content-addressed store for product pictures.
+ *
+ * Pictures are kept as files under the app's private files directory, named after the SHA-1 of
+ * their bytes. The products table only holds the resulting key (see
+ * {@link InventoryContract.ProductEntry#COLUMN_PRODUCT_IMAGE_KEY}) and a small thumbnail, so
+ * catalog queries never pull full pictures through the CursorWindow.
+ *
+ * A picture stored for a product is pinned until the write of that product has ended: a
+ * pinned picture is never deleted, even though no committed product refers to it yet.
+ * Committing a picture and deleting an unused one take the same lock, so a picture is never
+ * reused by one write while another deletes it.
+ */
+public class ProductImageStore {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ProductImageStore.class.getSimpleName();
+
+    /** Name of the directory (inside the app files directory) that holds the pictures */
+    private static final String IMAGE_DIRECTORY = "product_images";
+
+    /** Largest side, in pixels, of the thumbnails stored in the products table */
+    private static final int THUMBNAIL_SIZE = 96;
+
+    /** JPEG quality used for the thumbnails */
+    private static final int THUMBNAIL_QUALITY = 80;
+
+    /** Size of the buffer used when copying picture files */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Held while a picture is committed and while an unused one is deleted. Shared by all the
+     * stores of the process, which use the same directory.
+     */
+    private static final Object sLock = new Object();
+
+    /** Pinned keys, with the number of writes that pinned each. Guarded by {@link #sLock}. */
+    private static final Map<String, Integer> sPins = new HashMap<>();
+
+    /** Root directory of the store */
+    private final File mDirectory;
+
+    /**
+     * Tells whether a picture is still used, asked by {@link #deleteIfUnused} while the store is
+     * locked.
+     */
+    public interface References {
+        boolean isUsed(String key);
+    }
+
+    /**
+     * Constructs a new {@link ProductImageStore}.
+     *
+     * @param context of the app
+     */
+    public ProductImageStore(Context context) {
+        mDirectory = new File(context.getFilesDir(), IMAGE_DIRECTORY);
+    }
+
+    /**
+     * Store the given picture and return its key. Storing the same bytes twice returns the same
+     * key and keeps a single file.
+     */
+    public String put(byte[] image) throws IOException {
+        return put(image, false);
+    }
+
+    /**
+     * Store the given picture like {@link #put(byte[])} and pin it until {@link #unpin} is
+     * called with its key, once the write referring to it has ended.
+     */
+    public String putPinned(byte[] image) throws IOException {
+        return put(image, true);
+    }
+
+    private String put(byte[] image, boolean pin) throws IOException {
+        Writer writer = beginWrite();
+        try {
+            writer.write(image, 0, image.length);
+            return writer.commit(pin);
+        } finally {
+            writer.abort();
+        }
+    }
+
+    /**
+     * Undo one {@link #putPinned} of the given key.
+     */
+    public void unpin(String key) {
+        synchronized (sLock) {
+            Integer pins = sPins.get(key);
+            if (pins == null) {
+                return;
+            }
+            if (pins == 1) {
+                sPins.remove(key);
+            } else {
+                sPins.put(key, pins - 1);
+            }
+        }
+    }
+
+    /**
+     * Start writing a picture whose bytes are not all available at once (for example when they
+     * are read from the database in chunks). Call {@link Writer#commit()} to get the key, and
+     * always call {@link Writer#abort()} in a finally block.
+     */
+    public Writer beginWrite() throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create image directory " + mDirectory);
+        }
+        File temp = File.createTempFile("image", ".tmp", mDirectory);
+        return new Writer(temp);
+    }
+
+    /**
+     * Read the whole picture for the given key, or return null if there is no such picture.
+     */
+    public byte[] get(String key) throws IOException {
+        File file = getFile(key);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return the file that holds the picture for the given key, or null if the key is not valid.
+     * The file may not exist.
+     */
+    public File getFile(String key) {
+        if (!isValidKey(key)) {
+            return null;
+        }
+        return new File(new File(mDirectory, key.substring(0, 2)), key);
+    }
+
+    /**
+     * Return the file extension of the picture for the given key ("jpg", "png" or "webp"), found
+     * from its first bytes, or null if there is no such picture or its format is not known.
+     */
+    public String getFileExtension(String key) {
+        File file = getFile(key);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+
+        byte[] header = new byte[12];
+        int length = 0;
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                int read;
+                while (length < header.length
+                        && (read = in.read(header, length, header.length - length)) != -1) {
+                    length += read;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to read picture " + key, e);
+            return null;
+        }
+
+        if (length >= 3 && (header[0] & 0xff) == 0xff && (header[1] & 0xff) == 0xd8
+                && (header[2] & 0xff) == 0xff) {
+            return "jpg";
+        }
+        if (length >= 8 && (header[0] & 0xff) == 0x89 && header[1] == 'P' && header[2] == 'N'
+                && header[3] == 'G') {
+            return "png";
+        }
+        if (length >= 12 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F'
+                && header[3] == 'F' && header[8] == 'W' && header[9] == 'E' && header[10] == 'B'
+                && header[11] == 'P') {
+            return "webp";
+        }
+        return null;
+    }
+
+    /**
+     * Delete the picture for the given key. Return true if a file was removed.
+     */
+    public boolean delete(String key) {
+        synchronized (sLock) {
+            File file = getFile(key);
+            return file != null && file.delete();
+        }
+    }
+
+    /**
+     * Delete the picture for the given key unless it is pinned or the references say it is
+     * used. Both are checked with the store locked, so no write can reuse the picture in
+     * between. Return true if a file was removed.
+     */
+    public boolean deleteIfUnused(String key, References references) {
+        synchronized (sLock) {
+            if (sPins.containsKey(key) || references.isUsed(key)) {
+                return false;
+            }
+            File file = getFile(key);
+            return file != null && file.delete();
+        }
+    }
+
+    /**
+     * Build a small JPEG thumbnail for the given picture, or return null if it can't be decoded.
+     */
+    public static byte[] createThumbnail(byte[] image) {
+        // Read the bounds first, so we only decode as many pixels as the thumbnail needs
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(image, 0, image.length, options);
+
+        options.inSampleSize = sampleSizeFor(options.outWidth, options.outHeight);
+        options.inJustDecodeBounds = false;
+        return compressThumbnail(BitmapFactory.decodeByteArray(image, 0, image.length, options),
+                true);
+    }
+
+    /**
+     * Build a small JPEG thumbnail for the given bitmap. The bitmap is left untouched.
+     */
+    public static byte[] createThumbnail(Bitmap bitmap) {
+        return compressThumbnail(bitmap, false);
+    }
+
+    /**
+     * Build a small JPEG thumbnail for the picture stored under the given key, or return null if
+     * there is no such picture or it can't be decoded.
+     */
+    public byte[] createThumbnail(String key) {
+        File file = getFile(key);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+
+        options.inSampleSize = sampleSizeFor(options.outWidth, options.outHeight);
+        options.inJustDecodeBounds = false;
+        return compressThumbnail(BitmapFactory.decodeFile(file.getPath(), options), true);
+    }
+
+    /**
+     * Return the largest power of two sample size that keeps both sides at least as big as
+     * the thumbnail.
+     */
+    private static int sampleSizeFor(int width, int height) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= THUMBNAIL_SIZE
+                && height / (sampleSize * 2) >= THUMBNAIL_SIZE) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Scale the bitmap down to the thumbnail size and compress it. If recycle is true the
+     * bitmap was decoded only for the thumbnail and is recycled.
+     */
+    private static byte[] compressThumbnail(Bitmap bitmap, boolean recycle) {
+        if (bitmap == null) {
+            return null;
+        }
+
+        float scale = Math.min(1f,
+                (float) THUMBNAIL_SIZE / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+        Bitmap thumbnail = bitmap;
+        if (scale < 1f) {
+            thumbnail = Bitmap.createScaledBitmap(bitmap,
+                    Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                    Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, stream);
+        if (thumbnail != bitmap) {
+            thumbnail.recycle();
+        }
+        if (recycle) {
+            bitmap.recycle();
+        }
+        return stream.toByteArray();
+    }
+
+    /**
+     * Keys are lowercase hex SHA-1 digests. Anything else is rejected so a key can never point
+     * outside of the store.
+     */
+    private static boolean isValidKey(String key) {
+        if (key == null || key.length() != 40) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes one picture into a temporary file while hashing it, then moves it to its
+     * content-addressed location on {@link #commit()}.
+     */
+    public class Writer {
+
+        private final File mTempFile;
+        private final OutputStream mOut;
+        private final MessageDigest mDigest;
+        private boolean mDone;
+
+        private Writer(File tempFile) throws IOException {
+            mTempFile = tempFile;
+            mOut = new FileOutputStream(tempFile);
+            try {
+                mDigest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                mOut.close();
+                throw new IOException("SHA-1 is not available", e);
+            }
+        }
+
+        /**
+         * Append bytes to the picture.
+         */
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            mDigest.update(buffer, offset, length);
+            mOut.write(buffer, offset, length);
+        }
+
+        /**
+         * Finish the picture and return its key.
+         */
+        public String commit() throws IOException {
+            return commit(false);
+        }
+
+        /**
+         * Finish the picture and return its key, pinning it if asked to.
+         */
+        String commit(boolean pin) throws IOException {
+            mOut.close();
+
+            String key = toHex(mDigest.digest());
+            File target = getFile(key);
+            synchronized (sLock) {
+                File parent = target.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs()) {
+                    throw new IOException("Cannot create image directory " + parent);
+                }
+
+                if (target.isFile()) {
+                    // The same picture is already stored, keep the existing file. No delete
+                    // can remove it until the lock is released, and then it is pinned.
+                    if (!mTempFile.delete()) {
+                        Log.w(LOG_TAG, "Failed to delete " + mTempFile);
+                    }
+                } else if (!mTempFile.renameTo(target)) {
+                    throw new IOException("Cannot move picture to " + target);
+                }
+                if (pin) {
+                    Integer pins = sPins.get(key);
+                    sPins.put(key, pins == null ? 1 : pins + 1);
+                }
+            }
+            mDone = true;
+            return key;
+        }
+
+        /**
+         * Drop the temporary file if the picture was not committed. Safe to call after
+         * {@link #commit()}.
+         */
+        public void abort() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to close " + mTempFile, e);
+            }
+            if (!mTempFile.delete()) {
+                Log.w(LOG_TAG, "Failed to delete " + mTempFile);
+            }
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
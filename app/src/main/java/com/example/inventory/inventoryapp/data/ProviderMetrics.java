@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp.data;
+
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.os.Bundle;
+import android.os.SystemClock;
+import com.example.inventory.inventoryapp.data.InventoryContract.Metrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records how long the operations of the provider take, per operation and URI pattern, for
+ * the metrics call of the provider.
+ *
+ * Every call adds to a few atomic counters: no lock is taken and nothing is allocated, so
+ * recording costs two clock reads and a handful of atomic adds. The counters are read one by
+ * one, so a snapshot taken while calls run may be off by the calls in flight.
+ */
+class ProviderMetrics {
+
+    /** Operations recorded */
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int BATCH = 5;
+
+    /** Names of the operations, in the order of their constants */
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulk_insert", "update", "delete", "batch" };
+
+    /** Name of the pattern of the URIs that match none, and of the batches */
+    private static final String OTHER_PATTERN = "other";
+
+    /** Start time returned while the recording is off */
+    static final long DISABLED = -1;
+
+    private static final int BUCKETS = Metrics.HISTOGRAM_BUCKETS;
+
+    /** Names of the URI patterns by index, the last one for the other URIs */
+    private final String[] mPatterns;
+
+    /** Matcher code of the first pattern, the codes of the others follow it */
+    private final int mFirstCode;
+
+    // Counters of each row, a row being one operation and pattern
+    private final AtomicLongArray mCounts;
+    private final AtomicLongArray mTotalNanos;
+    private final AtomicLongArray mMaxNanos;
+    private final AtomicLongArray mRows;
+
+    /** Latency histograms of the rows, {@link #BUCKETS} counters per row */
+    private final AtomicLongArray mHistograms;
+
+    private final AtomicLong mLargeCursors = new AtomicLong();
+    private volatile long mResetTime = SystemClock.elapsedRealtime();
+    private volatile boolean mEnabled;
+
+    /**
+     * Constructs a new {@link ProviderMetrics}.
+     *
+     * @param patterns  names of the URI patterns, in the order of their matcher codes
+     * @param firstCode matcher code of the first pattern
+     * @param enabled   true to record from the start
+     */
+    ProviderMetrics(String[] patterns, int firstCode, boolean enabled) {
+        mPatterns = new String[patterns.length + 1];
+        System.arraycopy(patterns, 0, mPatterns, 0, patterns.length);
+        mPatterns[patterns.length] = OTHER_PATTERN;
+        mFirstCode = firstCode;
+        mEnabled = enabled;
+
+        int rows = OPERATION_NAMES.length * mPatterns.length;
+        mCounts = new AtomicLongArray(rows);
+        mTotalNanos = new AtomicLongArray(rows);
+        mMaxNanos = new AtomicLongArray(rows);
+        mRows = new AtomicLongArray(rows);
+        mHistograms = new AtomicLongArray(rows * BUCKETS);
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Return the start time of an operation, or {@link #DISABLED} if the recording is off.
+     */
+    long start() {
+        return mEnabled ? System.nanoTime() : DISABLED;
+    }
+
+    /**
+     * Record an operation started at the given time.
+     *
+     * @param match matcher code of its URI, or any code outside the patterns for the others
+     * @param rows  rows returned or written
+     */
+    void record(int operation, int match, long startNanos, long rows) {
+        if (startNanos == DISABLED) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        int pattern = match - mFirstCode;
+        if (pattern < 0 || pattern >= mPatterns.length - 1) {
+            pattern = mPatterns.length - 1;
+        }
+        int row = operation * mPatterns.length + pattern;
+
+        mCounts.incrementAndGet(row);
+        mTotalNanos.addAndGet(row, nanos);
+        mRows.addAndGet(row, rows);
+        mHistograms.incrementAndGet(row * BUCKETS + bucket(nanos / 1000));
+        long max;
+        do {
+            max = mMaxNanos.get(row);
+        } while (nanos > max && !mMaxNanos.compareAndSet(row, max, nanos));
+    }
+
+    /**
+     * Record a query started at the given time. The rows of the cursor must have been counted,
+     * which runs the query.
+     */
+    void recordQuery(int match, long startNanos, Cursor cursor) {
+        if (startNanos == DISABLED) {
+            return;
+        }
+        int count = cursor == null ? 0 : cursor.getCount();
+        record(QUERY, match, startNanos, count);
+
+        // The cursor window holds as many rows as fit, a query that returns more is read again
+        // from the database when it is scrolled past them
+        if (cursor instanceof AbstractWindowedCursor) {
+            CursorWindow window = ((AbstractWindowedCursor) cursor).getWindow();
+            if (window != null && window.getNumRows() < count) {
+                mLargeCursors.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Return the bucket of a latency: 0 under 1 microsecond, b from 2^(b-1) up to 2^b
+     * microseconds, the last one for everything longer.
+     */
+    private static int bucket(long micros) {
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /**
+     * Start the metrics over.
+     */
+    void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+            mTotalNanos.set(i, 0);
+            mMaxNanos.set(i, 0);
+            mRows.set(i, 0);
+        }
+        for (int i = 0; i < mHistograms.length(); i++) {
+            mHistograms.set(i, 0);
+        }
+        mLargeCursors.set(0);
+        mResetTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Return the metrics as the bundle of {@link Metrics}, with the rows that were called at
+     * least once.
+     */
+    Bundle toBundle() {
+        List<Integer> rows = new ArrayList<>();
+        for (int i = 0; i < mCounts.length(); i++) {
+            if (mCounts.get(i) != 0) {
+                rows.add(i);
+            }
+        }
+
+        int size = rows.size();
+        String[] operations = new String[size];
+        String[] patterns = new String[size];
+        long[] counts = new long[size];
+        long[] totalMicros = new long[size];
+        long[] maxMicros = new long[size];
+        long[] rowCounts = new long[size];
+        long[] histograms = new long[size * BUCKETS];
+        for (int i = 0; i < size; i++) {
+            int row = rows.get(i);
+            operations[i] = OPERATION_NAMES[row / mPatterns.length];
+            patterns[i] = mPatterns[row % mPatterns.length];
+            counts[i] = mCounts.get(row);
+            totalMicros[i] = mTotalNanos.get(row) / 1000;
+            maxMicros[i] = mMaxNanos.get(row) / 1000;
+            rowCounts[i] = mRows.get(row);
+            for (int b = 0; b < BUCKETS; b++) {
+                histograms[i * BUCKETS + b] = mHistograms.get(row * BUCKETS + b);
+            }
+        }
+
+        Bundle result = new Bundle();
+        result.putBoolean(Metrics.EXTRA_ENABLED, mEnabled);
+        result.putLong(Metrics.EXTRA_ELAPSED_MILLIS, SystemClock.elapsedRealtime() - mResetTime);
+        result.putStringArray(Metrics.EXTRA_OPERATIONS, operations);
+        result.putStringArray(Metrics.EXTRA_PATTERNS, patterns);
+        result.putLongArray(Metrics.EXTRA_COUNTS, counts);
+        result.putLongArray(Metrics.EXTRA_TOTAL_MICROS, totalMicros);
+        result.putLongArray(Metrics.EXTRA_MAX_MICROS, maxMicros);
+        result.putLongArray(Metrics.EXTRA_ROWS, rowCounts);
+        result.putLongArray(Metrics.EXTRA_HISTOGRAMS, histograms);
+        result.putLong(Metrics.EXTRA_LARGE_CURSORS, mLargeCursors.get());
+        return result;
+    }
+}
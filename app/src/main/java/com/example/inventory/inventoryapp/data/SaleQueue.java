@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.v4.util.LongSparseArray;
+import android.util.Log;
+import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.StockMovementEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Write-behind queue for the sales made from the catalog.
+ *
+ * A sale only adds to the quantity pending for its product; the first sale of a burst opens a
+ * window, and when it closes all the pending sales are written on a background thread as one
+ * batch, one stock movement per product. Until then the catalog shows the quantities minus the
+ * pending sales. The queue is flushed right away when the catalog is paused, so the sales are
+ * written before the process can be killed.
+ */
+public class SaleQueue {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = SaleQueue.class.getSimpleName();
+
+    /** How long the sales are accumulated before they are written */
+    public static final long DEFAULT_WINDOW_MILLIS = 250;
+
+    private static SaleQueue sInstance;
+
+    /**
+     * Told on the main thread when sales could not be written because the product ran out of
+     * stock (or was deleted) meanwhile.
+     */
+    public interface Listener {
+        void onSaleRefused(long productId, int quantity);
+    }
+
+    /**
+     * Snapshot of the state of the queue.
+     */
+    public static class Stats {
+
+        /** Number of products with pending sales */
+        public final int pendingProducts;
+
+        /** Number of units pending sale, all products together */
+        public final int pendingUnits;
+
+        /** Number of batches written */
+        public final long flushes;
+
+        /** Number of units written, and refused */
+        public final long unitsWritten;
+        public final long unitsRefused;
+
+        /** Time from the first sale of a window to the commit of its batch, last and worst */
+        public final long lastFlushLatencyMillis;
+        public final long maxFlushLatencyMillis;
+
+        Stats(int pendingProducts, int pendingUnits, long flushes, long unitsWritten,
+              long unitsRefused, long lastFlushLatencyMillis, long maxFlushLatencyMillis) {
+            this.pendingProducts = pendingProducts;
+            this.pendingUnits = pendingUnits;
+            this.flushes = flushes;
+            this.unitsWritten = unitsWritten;
+            this.unitsRefused = unitsRefused;
+            this.lastFlushLatencyMillis = lastFlushLatencyMillis;
+            this.maxFlushLatencyMillis = maxFlushLatencyMillis;
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+    private final long mWindowMillis;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /** Units pending sale per product, including the ones being written */
+    private final LongSparseArray<Integer> mPending = new LongSparseArray<>();
+
+    /** Units pending sale, all products together, read without the lock on the bind path */
+    private volatile int mPendingUnits;
+
+    /** True while a write is scheduled, and when its window opened */
+    private boolean mScheduled;
+    private long mWindowStart;
+
+    // Statistics
+    private long mFlushes;
+    private long mUnitsWritten;
+    private long mUnitsRefused;
+    private long mLastFlushLatency;
+    private long mMaxFlushLatency;
+
+    private final Runnable mWrite = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    /**
+     * Return the queue of the app.
+     */
+    public static synchronized SaleQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SaleQueue(context.getApplicationContext().getContentResolver(),
+                    DEFAULT_WINDOW_MILLIS);
+        }
+        return sInstance;
+    }
+
+    private SaleQueue(ContentResolver contentResolver, long windowMillis) {
+        mContentResolver = contentResolver;
+        mWindowMillis = windowMillis;
+
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Queue the sale of the given quantity of a product.
+     */
+    public void sell(long productId, int quantity) {
+        synchronized (this) {
+            Integer pending = mPending.get(productId);
+            mPending.put(productId, pending == null ? quantity : pending + quantity);
+            mPendingUnits += quantity;
+            if (!mScheduled) {
+                mScheduled = true;
+                mWindowStart = SystemClock.uptimeMillis();
+                mHandler.postDelayed(mWrite, mWindowMillis);
+            }
+        }
+    }
+
+    /**
+     * Return the number of units of a product sold but not written yet.
+     */
+    public int getPendingQuantity(long productId) {
+        // Nothing is pending most of the time, don't take the lock then
+        if (mPendingUnits == 0) {
+            return 0;
+        }
+        synchronized (this) {
+            Integer pending = mPending.get(productId);
+            return pending == null ? 0 : pending;
+        }
+    }
+
+    /**
+     * Write the pending sales now rather than when the window closes. This returns right away;
+     * the write goes before anything else waiting on the background thread.
+     */
+    public void flush() {
+        synchronized (this) {
+            if (mPendingUnits == 0) {
+                return;
+            }
+            mHandler.removeCallbacks(mWrite);
+            mScheduled = true;
+            mHandler.postAtFrontOfQueue(mWrite);
+        }
+    }
+
+    /**
+     * Return a snapshot of the state of the queue.
+     */
+    public synchronized Stats getStats() {
+        return new Stats(mPending.size(), mPendingUnits, mFlushes, mUnitsWritten, mUnitsRefused,
+                mLastFlushLatency, mMaxFlushLatency);
+    }
+
+    /**
+     * Write the pending sales as one batch. Runs on the background thread.
+     */
+    private void write() {
+        long[] ids;
+        int[] quantities;
+        long windowStart;
+        synchronized (this) {
+            // Sales made from now on open a new window
+            mScheduled = false;
+            windowStart = mWindowStart;
+            ids = new long[mPending.size()];
+            quantities = new int[mPending.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = mPending.keyAt(i);
+                quantities[i] = mPending.valueAt(i);
+            }
+        }
+        if (ids.length == 0) {
+            return;
+        }
+
+        // One movement per product, all in one transaction
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            operations.add(ContentProviderOperation.newUpdate(ProductEntry.buildAdjustUri(ids[i],
+                    -quantities[i], StockMovementEntry.REASON_SALE)).build());
+        }
+        ContentProviderResult[] results = null;
+        try {
+            results = mContentResolver.applyBatch(InventoryContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Failed to write " + ids.length + " sales", e);
+        }
+
+        // The provider refuses the whole movement if there isn't enough stock left: sell what
+        // is left instead
+        int[] refused = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            if (results == null || results[i].count == null || results[i].count < 0) {
+                refused[i] = quantities[i] - sellRemaining(ids[i], quantities[i]);
+            }
+        }
+        long latency = SystemClock.uptimeMillis() - windowStart;
+
+        // The sales are in the database now, stop counting them as pending
+        int written = 0;
+        int totalRefused = 0;
+        synchronized (this) {
+            for (int i = 0; i < ids.length; i++) {
+                int left = mPending.get(ids[i]) - quantities[i];
+                if (left == 0) {
+                    mPending.remove(ids[i]);
+                } else {
+                    mPending.put(ids[i], left);
+                }
+                mPendingUnits -= quantities[i];
+                written += quantities[i] - refused[i];
+                totalRefused += refused[i];
+            }
+            mFlushes++;
+            mUnitsWritten += written;
+            mUnitsRefused += totalRefused;
+            mLastFlushLatency = latency;
+            mMaxFlushLatency = Math.max(mMaxFlushLatency, latency);
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            if (refused[i] != 0) {
+                notifyRefused(ids[i], refused[i]);
+            }
+        }
+    }
+
+    /**
+     * Sell up to the given quantity of a product, as much as its stock allows. Return the
+     * quantity sold.
+     */
+    private int sellRemaining(long productId, int quantity) {
+        Cursor cursor = mContentResolver.query(
+                ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId),
+                new String[] { ProductEntry.COLUMN_PRODUCT_QUANTITY }, null, null, null);
+        int available = 0;
+        if (cursor != null) {
+            try {
+                available = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        int sold = Math.min(available, quantity);
+        if (sold <= 0 || mContentResolver.update(ProductEntry.buildAdjustUri(productId, -sold,
+                StockMovementEntry.REASON_SALE), null, null, null) < 0) {
+            return 0;
+        }
+        return sold;
+    }
+
+    private void notifyRefused(final long productId, final int quantity) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : mListeners) {
+                    listener.onSaleRefused(productId, quantity);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.SummaryEntry;
+
+/**
+ * Checks the inventory summary kept by the triggers against the products, for the verify call
+ * of the provider.
+ *
+ * The totals are recomputed from scratch and compared with the summary rows both ways, so a
+ * row that is wrong, missing or left over counts as a mismatch. The comparison is a single
+ * statement, so it reads the products and the summary as of the same moment while writers go
+ * on. A repair compares and rebuilds in one transaction, so no write lands in between.
+ */
+class SummaryChecker {
+
+    private static final String LOG_TAG = SummaryChecker.class.getSimpleName();
+
+    /** Totals of all the products, as the columns of the summary */
+    private static final String SQL_TOTALS = "SELECT count(*), "
+            + "ifnull(sum(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0), "
+            + "ifnull(sum(" + ProductEntry.COLUMN_PRODUCT_PRICE + " * "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0) FROM " + ProductEntry.TABLE_NAME;
+
+    /** Totals per supplier, as the columns of the summary per supplier */
+    private static final String SQL_SUPPLIER_TOTALS = "SELECT "
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ", count(*), "
+            + "sum(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), "
+            + "sum(" + ProductEntry.COLUMN_PRODUCT_PRICE + " * "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ") FROM " + ProductEntry.TABLE_NAME
+            + " GROUP BY " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID;
+
+    /** Columns of the summary tables, in the order of the totals above */
+    private static final String SUMMARY_COLUMNS = SummaryEntry.COLUMN_PRODUCT_COUNT + ", "
+            + SummaryEntry.COLUMN_TOTAL_QUANTITY + ", " + SummaryEntry.COLUMN_TOTAL_VALUE;
+    private static final String SUPPLIER_SUMMARY_COLUMNS = SummaryEntry.COLUMN_SUPPLIER_ID + ", "
+            + SUMMARY_COLUMNS;
+
+    private static final String SQL_SUMMARY = "SELECT " + SUMMARY_COLUMNS + " FROM "
+            + SummaryEntry.TABLE_NAME;
+    private static final String SQL_SUPPLIER_SUMMARY = "SELECT " + SUPPLIER_SUMMARY_COLUMNS
+            + " FROM " + SummaryEntry.SUPPLIERS_TABLE_NAME;
+
+    /** Number of summary rows that differ from the recomputed ones, in either direction */
+    private static final String SQL_COUNT_MISMATCHES = "SELECT "
+            + countDifference(SQL_SUMMARY, SQL_TOTALS) + " + "
+            + countDifference(SQL_TOTALS, SQL_SUMMARY) + " + "
+            + countDifference(SQL_SUPPLIER_SUMMARY, SQL_SUPPLIER_TOTALS) + " + "
+            + countDifference(SQL_SUPPLIER_TOTALS, SQL_SUPPLIER_SUMMARY);
+
+    /**
+     * Return an expression counting the rows of the first query that the second one doesn't
+     * return.
+     */
+    private static String countDifference(String query, String other) {
+        return "(SELECT count(*) FROM (" + query + " EXCEPT " + other + "))";
+    }
+
+    private final SQLiteDatabase mDatabase;
+
+    SummaryChecker(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Compare the summary with the products, and rebuild it if it doesn't match and repair is
+     * true. Return the bundle of {@link SummaryEntry#METHOD_VERIFY}.
+     */
+    Bundle verify(boolean repair) {
+        long start = SystemClock.uptimeMillis();
+        int mismatches;
+        boolean repaired = false;
+        if (repair) {
+            mDatabase.beginTransaction();
+            try {
+                mismatches = countMismatches();
+                if (mismatches != 0) {
+                    rebuild();
+                    repaired = true;
+                }
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+        } else {
+            mismatches = countMismatches();
+        }
+
+        long durationMillis = SystemClock.uptimeMillis() - start;
+        if (mismatches != 0) {
+            Log.w(LOG_TAG, mismatches + " summary rows don't match the products"
+                    + (repaired ? ", rebuilt" : "") + " (" + durationMillis + " ms)");
+        } else {
+            Log.i(LOG_TAG, "Summary matches the products (" + durationMillis + " ms)");
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(SummaryEntry.EXTRA_MISMATCHES, mismatches);
+        result.putBoolean(SummaryEntry.EXTRA_REPAIRED, repaired);
+        return result;
+    }
+
+    private int countMismatches() {
+        return (int) DatabaseUtils.longForQuery(mDatabase, SQL_COUNT_MISMATCHES, null);
+    }
+
+    /**
+     * Replace the summary with the totals recomputed from the products.
+     */
+    private void rebuild() {
+        mDatabase.delete(SummaryEntry.TABLE_NAME, null, null);
+        mDatabase.execSQL("INSERT INTO " + SummaryEntry.TABLE_NAME + " (" + SUMMARY_COLUMNS
+                + ") " + SQL_TOTALS);
+        mDatabase.delete(SummaryEntry.SUPPLIERS_TABLE_NAME, null, null);
+        mDatabase.execSQL("INSERT INTO " + SummaryEntry.SUPPLIERS_TABLE_NAME + " ("
+                + SUPPLIER_SUMMARY_COLUMNS + ") " + SQL_SUPPLIER_TOTALS);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.inventory.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import com.example.inventory.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.inventory.inventoryapp.data.InventoryContract.SupplierEntry;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the supplier with a given name and email, adding it if there is none, for the
+ * product writes of the provider.
+ *
+ * It is used inside the transaction of one write and closed at its end. The statements are
+ * compiled once and the ids found are remembered, so a batch of products naming the same few
+ * suppliers looks each of them up once.
+ */
+class SupplierResolver {
+
+    /** Supplier with a name and email, the email is compared with IS so null finds null */
+    private static final String SQL_FIND_SUPPLIER = "SELECT " + SupplierEntry._ID + " FROM "
+            + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_NAME
+            + " = ? AND " + SupplierEntry.COLUMN_SUPPLIER_EMAIL + " IS ?";
+
+    private static final String SQL_INSERT_SUPPLIER = "INSERT INTO " + SupplierEntry.TABLE_NAME
+            + " (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+            + SupplierEntry.COLUMN_SUPPLIER_EMAIL + ") VALUES (?, ?)";
+
+    private final SQLiteStatement mFindStatement;
+    private final SQLiteStatement mInsertStatement;
+
+    /** Ids already found, by name and email */
+    private final Map<String, Long> mIds = new HashMap<>();
+
+    SupplierResolver(SQLiteDatabase database) {
+        mFindStatement = database.compileStatement(SQL_FIND_SUPPLIER);
+        mInsertStatement = database.compileStatement(SQL_INSERT_SUPPLIER);
+    }
+
+    /**
+     * Return the id of the supplier with the given name and email, which may be null, adding
+     * the supplier if there is none.
+     */
+    long resolve(String name, String email) {
+        // The name can't hold a NUL, so it separates the name from the email
+        String key = email == null ? name : name + '\0' + email;
+        Long id = mIds.get(key);
+        if (id != null) {
+            return id;
+        }
+
+        bind(mFindStatement, name, email);
+        try {
+            id = mFindStatement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            bind(mInsertStatement, name, email);
+            id = mInsertStatement.executeInsert();
+        }
+        mIds.put(key, id);
+        return id;
+    }
+
+    /**
+     * Replace the supplier name and email of a product's values with the id of that supplier.
+     * A missing email is taken as none.
+     */
+    void replaceSupplier(ContentValues values) {
+        long id = resolve(values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER),
+                values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL));
+        values.remove(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
+        values.remove(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID, id);
+    }
+
+    void close() {
+        mFindStatement.close();
+        mInsertStatement.close();
+    }
+
+    private static void bind(SQLiteStatement statement, String name, String email) {
+        statement.bindString(1, name);
+        if (email == null) {
+            statement.bindNull(2);
+        } else {
+            statement.bindString(2, email);
+        }
+    }
+}